@@ -37,6 +37,7 @@ public interface IAiService {
      * 基于 RAG（检索增强生成）的流式对话
      * 从向量数据库检索相关知识，结合上下文生成更精准的回答
      * 支持同时选择多个知识库（OR 策略合并检索结果）
+     * 检索在响应流内执行，先推送 retrieving / sources 事件，再推送模型输出
      *
      * @param model   模型名称（如：gpt-4o, gpt-3.5-turbo, qwen-plus）
      * @param ragTags 知识库标签列表（用于过滤特定知识库），为空则不使用知识库
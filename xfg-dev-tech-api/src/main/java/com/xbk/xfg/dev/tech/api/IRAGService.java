@@ -2,7 +2,9 @@ package com.xbk.xfg.dev.tech.api;
 
 import com.xbk.xfg.dev.tech.api.dto.TaskProgressDTO;
 import com.xbk.xfg.dev.tech.api.response.Response;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -57,6 +59,13 @@ public interface IRAGService {
      */
     Response<TaskProgressDTO> queryTaskProgress(String taskId);
 
+    /**
+     * 订阅任务进度（SSE），任务结束时流结束
+     * @param taskId 任务ID
+     * @return 进度事件流
+     */
+    Flux<ServerSentEvent<Object>> streamTaskProgress(String taskId);
+
     /**
      * 取消任务
      * @param taskId 任务ID
@@ -55,6 +55,11 @@ public class LlmProviderConfigDTO implements Serializable {
      */
     private List<String> models;
 
+    /**
+     * 负载均衡权重（可选）：大于 0 时该配置加入对话提供商池，与激活的配置一起分担请求并互为故障转移
+     */
+    private Integer poolWeight;
+
     /**
      * 是否为当前激活的配置
      */
@@ -0,0 +1,35 @@
+package com.xbk.xfg.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * RAG 检索命中的参考来源 DTO
+ * RAG 流式对话在生成回答之前通过 sources 事件推送
+ *
+ * @author xiexu
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class RagSourceDTO implements Serializable {
+    /**
+     * 知识库标签
+     */
+    private String knowledge;
+
+    /**
+     * 来源路径（文件名或仓库内相对路径）
+     */
+    private String sourcePath;
+
+    /**
+     * 检索得分
+     */
+    private Double score;
+}
@@ -42,4 +42,19 @@ public class TaskProgressDTO implements Serializable {
      * 错误信息 (如果有)
      */
     private String errorMessage;
+
+    /**
+     * 克隆 / 拉取耗时（毫秒）
+     */
+    private Long fetchMillis;
+
+    /**
+     * 本地仓库占用磁盘（字节）
+     */
+    private Long diskBytes;
+
+    /**
+     * 已读取的文件内容（字节）
+     */
+    private Long bytesRead;
 }
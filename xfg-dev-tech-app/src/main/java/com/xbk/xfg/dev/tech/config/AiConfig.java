@@ -1,6 +1,8 @@
 package com.xbk.xfg.dev.tech.config;
 
 // ==================== Spring AI 相关依赖导入 ====================
+// Embedding 模型接口：文本 → 向量
+import org.springframework.ai.embedding.EmbeddingModel;
 // Ollama API：底层 HTTP 客户端，负责与 Ollama 服务通信
 import org.springframework.ai.ollama.api.OllamaApi;
 // 文本分割器：将长文档按 Token 数量分割成多个小块
@@ -17,6 +19,8 @@ import org.springframework.context.annotation.Configuration;
 // JDBC 模板：用于执行 SQL 操作，PgVectorStore 依赖它
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import com.xbk.xfg.dev.tech.domain.cache.EmbeddingCache;
+import com.xbk.xfg.dev.tech.domain.factory.CoalescingEmbeddingModel;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicEmbeddingFactory;
 import com.xbk.xfg.dev.tech.domain.factory.LazyEmbeddingModel;
 
@@ -26,7 +30,8 @@ import com.xbk.xfg.dev.tech.domain.factory.LazyEmbeddingModel;
  * 本配置类负责初始化以下组件：
  * 1. API 客户端：连接 Ollama 服务
  * 2. 文本分割器：将文档切分成合适的块
- * 3. 向量存储：存储文本的向量表示，支持相似性搜索（动态 Embedding）
+ * 3. Embedding 模型：动态切换 + 合并并发请求
+ * 4. 向量存储：存储文本的向量表示，支持相似性搜索（动态 Embedding）
  *
  * @author xiexu
  */
@@ -53,19 +58,34 @@ public class AiConfig {
         return new TokenTextSplitter();
     }
 
-    // ==================== 3. 向量存储配置 ====================
+    // ==================== 3. Embedding 模型配置 ====================
+
+    /**
+     * 创建 Embedding 模型
+     * LazyEmbeddingModel 支持运行时切换 Embedding 配置，并先查询向量缓存，
+     * 外层 CoalescingEmbeddingModel 把短时间内多个线程的请求合并为一次批量调用
+     */
+    @Bean
+    public EmbeddingModel embeddingModel(DynamicEmbeddingFactory embeddingFactory,
+                                         EmbeddingCache embeddingCache,
+                                         @Value("${rag.embedding.coalesce.window-ms:5}") long windowMillis,
+                                         @Value("${rag.embedding.coalesce.max-concurrent-batches:4}") int maxConcurrentBatches) {
+        return new CoalescingEmbeddingModel(
+                new LazyEmbeddingModel(embeddingFactory, embeddingCache),
+                embeddingFactory::getActiveMaxBatchSize,
+                windowMillis,
+                maxConcurrentBatches
+        );
+    }
+
+    // ==================== 4. 向量存储配置 ====================
 
     /**
      * 创建 PostgreSQL 向量存储（基于 pgvector 扩展）
      */
     @Bean
-    public PgVectorStore pgVectorStore(JdbcTemplate jdbcTemplate,
-                                        DynamicEmbeddingFactory embeddingFactory) {
-        // 使用 LazyEmbeddingModel 支持运行时切换 Embedding 模型
-        return PgVectorStore.builder(
-                jdbcTemplate,
-                new LazyEmbeddingModel(embeddingFactory)
-        ).build();
+    public PgVectorStore pgVectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel) {
+        return PgVectorStore.builder(jdbcTemplate, embeddingModel).build();
     }
 
 }
@@ -0,0 +1,24 @@
+package com.xbk.xfg.dev.tech.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 知识库导入任务线程池配置
+ *
+ * @author xiexu
+ */
+@Data
+@ConfigurationProperties(prefix = "rag.ingestion.executor", ignoreInvalidFields = true)
+public class IngestionExecutorConfigProperties {
+
+    /** 核心线程数，即同时执行的导入任务数，默认为2 */
+    private int corePoolSize = 2;
+    /** 最大线程数，默认为4 */
+    private int maxPoolSize = 4;
+    /** 非核心线程最大空闲时间（单位：秒），默认为60 */
+    private long keepAliveTime = 60L;
+    /** 等待队列容量，队列满后新任务直接拒绝并返回"队列已满"，默认为16 */
+    private int blockQueueSize = 16;
+
+}
@@ -0,0 +1,28 @@
+package com.xbk.xfg.dev.tech.config;
+
+import com.xbk.xfg.dev.tech.domain.factory.ProviderGuard;
+import jakarta.annotation.Resource;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 提供商保护状态端点：GET /actuator/providers
+ * 每个配置的熔断器状态、窗口失败率、当前并发上限、在途请求数和累计拒绝次数
+ *
+ * @author xiexu
+ */
+@Component
+@Endpoint(id = "providers")
+public class ProviderGuardEndpoint {
+
+    @Resource
+    private ProviderGuard providerGuard;
+
+    @ReadOperation
+    public List<ProviderGuard.GuardSnapshot> providers() {
+        return providerGuard.snapshot();
+    }
+}
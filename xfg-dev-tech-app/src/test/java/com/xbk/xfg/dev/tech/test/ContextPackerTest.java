@@ -0,0 +1,110 @@
+package com.xbk.xfg.dev.tech.test;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.xbk.xfg.dev.tech.domain.retrieval.ContextPacker;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * RAG 上下文打包单元测试：Token 预算、去重、首条截断
+ */
+public class ContextPackerTest {
+
+    private static final String FIRST = "PostgreSQL partitions keep each knowledge base in its own HNSW graph.";
+
+    private static final String SECOND = "Redisson topics broadcast task cancellation to every instance.";
+
+    private static final String SHORT = "Caffeine caches query embeddings.";
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private ContextPacker contextPacker;
+
+    @Before
+    public void setUp() {
+        contextPacker = new ContextPacker();
+        ReflectionTestUtils.setField(contextPacker, "defaultTokenBudget", 3000);
+        ReflectionTestUtils.setField(contextPacker, "modelBudgets", Map.of());
+        ReflectionTestUtils.setField(contextPacker, "dedupThreshold", 0.8);
+    }
+
+    @Test
+    public void test_pack_skipOverBudgetAndContinue() {
+        String large = words("large", 200);
+        int separator = tokens(ContextPacker.SEPARATOR);
+        // 预算刚好放下 FIRST + SECOND + SHORT，放不下的 large 被跳过，继续放入后面更短的 SHORT
+        int budget = tokens(FIRST) + separator + tokens(SECOND) + separator + tokens(SHORT);
+        ReflectionTestUtils.setField(contextPacker, "modelBudgets", Map.of("small-model", budget));
+
+        List<Document> packed = contextPacker.pack(
+                List.of(document("1", FIRST), document("2", SECOND), document("3", large), document("4", SHORT)),
+                "small-model");
+
+        Assert.assertEquals(List.of("1", "2", "4"), ids(packed));
+    }
+
+    @Test
+    public void test_pack_modelWithoutBudgetUsesDefault() {
+        List<Document> packed = contextPacker.pack(
+                List.of(document("1", FIRST), document("2", SECOND)), "unknown-model");
+
+        Assert.assertEquals(List.of("1", "2"), ids(packed));
+    }
+
+    @Test
+    public void test_pack_dedup() {
+        List<Document> packed = contextPacker.pack(List.of(
+                document("1", FIRST),
+                // 只有空白不同
+                document("2", FIRST.replace(" ", "   \n")),
+                // 被已放入的切块包含
+                document("3", FIRST.substring(0, 40)),
+                document("4", SECOND)), null);
+
+        Assert.assertEquals(List.of("1", "4"), ids(packed));
+    }
+
+    @Test
+    public void test_pack_truncateFirstOverBudget() {
+        String large = words("large", 500);
+        ReflectionTestUtils.setField(contextPacker, "defaultTokenBudget", 50);
+
+        List<Document> packed = contextPacker.pack(List.of(document("1", large), document("2", SHORT)), null);
+
+        Assert.assertEquals(List.of("1"), ids(packed));
+        String text = packed.get(0).getText();
+        Assert.assertTrue(tokens(text) <= 50);
+        Assert.assertTrue(large.startsWith(text));
+    }
+
+    @Test
+    public void test_pack_empty() {
+        Assert.assertTrue(contextPacker.pack(List.of(), null).isEmpty());
+    }
+
+    private int tokens(String text) {
+        return encoding.countTokensOrdinary(text);
+    }
+
+    private static String words(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> prefix + i).collect(Collectors.joining(" "));
+    }
+
+    private static Document document(String id, String text) {
+        return Document.builder().id(id).text(text).build();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+}
@@ -0,0 +1,43 @@
+package com.xbk.xfg.dev.tech.test;
+
+import com.xbk.xfg.dev.tech.domain.repository.impl.VectorStoreRepositoryImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 全文检索查询词生成单元测试
+ */
+public class FullTextQueryTest {
+
+    @Test
+    public void test_toTsQuery_andTermsWithoutStopwords() {
+        Assert.assertEquals("fix & nullpointerexception & userservice",
+                VectorStoreRepositoryImpl.toTsQuery("How do I fix the NullPointerException in UserService?"));
+    }
+
+    @Test
+    public void test_toTsQuery_onlyStopwords() {
+        Assert.assertNull(VectorStoreRepositoryImpl.toTsQuery("the a is of"));
+        Assert.assertNull(VectorStoreRepositoryImpl.toTsQuery(null));
+    }
+
+    @Test
+    public void test_toTsQuery_cjkOnlyIdentifiers() {
+        // 中文不参与全文检索，只保留夹带的标识符和错误码
+        Assert.assertEquals("userservice & err & 500",
+                VectorStoreRepositoryImpl.toTsQuery("用户服务 UserService 报错 ERR_500"));
+        Assert.assertEquals("hikaricp", VectorStoreRepositoryImpl.toTsQuery("データベース 接続 HikariCP"));
+        Assert.assertNull(VectorStoreRepositoryImpl.toTsQuery("如何配置数据库连接池"));
+    }
+
+    @Test
+    public void test_toTsQuery_maxTerms() {
+        Assert.assertEquals("alpha & beta & gamma & delta & epsilon & zeta & eta & theta",
+                VectorStoreRepositoryImpl.toTsQuery("alpha beta gamma delta epsilon zeta eta theta iota kappa"));
+    }
+
+    @Test
+    public void test_toTsQuery_dedupCaseInsensitive() {
+        Assert.assertEquals("foo & bar", VectorStoreRepositoryImpl.toTsQuery("Foo foo FOO bar"));
+    }
+}
@@ -0,0 +1,124 @@
+package com.xbk.xfg.dev.tech.test;
+
+import com.xbk.xfg.dev.tech.domain.retrieval.HybridRetriever;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 混合检索融合与多知识库配额合并单元测试（不依赖数据库和 Embedding 服务）
+ */
+public class HybridRetrieverTest {
+
+    private HybridRetriever hybridRetriever;
+
+    @Before
+    public void setUp() {
+        hybridRetriever = new HybridRetriever();
+        ReflectionTestUtils.setField(hybridRetriever, "rrfK", 60);
+    }
+
+    @Test
+    public void test_fuse_rankBothLegsFirst() {
+        List<Document> vector = List.of(vectorHit("a"), vectorHit("b"), vectorHit("c"));
+        List<Document> lexical = List.of(lexicalHit("c"), lexicalHit("d"));
+
+        List<Document> fused = hybridRetriever.fuse(vector, lexical, 10);
+
+        // c 两路都命中排第一；b、d 分数相同（各自第 2 名）时按先出现的顺序
+        Assert.assertEquals(List.of("c", "a", "b", "d"), ids(fused));
+        Assert.assertEquals(1.0 / 63 + 1.0 / 61, fused.get(0).getScore(), 1e-12);
+        Assert.assertEquals(1.0 / 61, fused.get(1).getScore(), 1e-12);
+    }
+
+    @Test
+    public void test_fuse_dedupKeepsVectorCopy() {
+        List<Document> fused = hybridRetriever.fuse(List.of(vectorHit("a")), List.of(lexicalHit("a")), 10);
+
+        Assert.assertEquals(1, fused.size());
+        Assert.assertTrue(fused.get(0).getMetadata().containsKey("distance"));
+    }
+
+    @Test
+    public void test_fuse_limitTopK() {
+        List<Document> vector = List.of(vectorHit("a"), vectorHit("b"), vectorHit("c"));
+        List<Document> lexical = List.of(lexicalHit("c"), lexicalHit("d"));
+
+        Assert.assertEquals(List.of("c", "a"), ids(hybridRetriever.fuse(vector, lexical, 2)));
+    }
+
+    @Test
+    public void test_fuse_emptyLexicalLeg() {
+        List<Document> fused = hybridRetriever.fuse(List.of(vectorHit("a"), vectorHit("b")), List.of(), 10);
+
+        Assert.assertEquals(List.of("a", "b"), ids(fused));
+    }
+
+    @Test
+    public void test_mergeWithQuotas_unusedQuotaFilledByScore() {
+        // 3 个知识库、topK 6：每个知识库配额 2 条，b 只返回 1 条，空出的名额按分数从其余结果补齐
+        List<HybridRetriever.TagResult> results = List.of(
+                tagResult("a", 0.9, 0.8, 0.7, 0.6, 0.5),
+                tagResult("b", 0.95),
+                tagResult("c", 0.3, 0.2, 0.1));
+
+        List<Document> merged = hybridRetriever.mergeWithQuotas(results, 3, 6);
+
+        Assert.assertEquals(List.of("b0", "a0", "a1", "a2", "c0", "c1"), ids(merged));
+    }
+
+    @Test
+    public void test_mergeWithQuotas_smallTagKeepsQuota() {
+        // c 的分数远低于 a，仍然保留配额内的 2 条
+        List<HybridRetriever.TagResult> results = List.of(
+                tagResult("a", 0.9, 0.8, 0.7, 0.6),
+                tagResult("c", 0.2, 0.1));
+
+        List<Document> merged = hybridRetriever.mergeWithQuotas(results, 2, 4);
+
+        Assert.assertEquals(List.of("a0", "a1", "c0", "c1"), ids(merged));
+    }
+
+    @Test
+    public void test_mergeWithQuotas_tagMissedDeadline() {
+        // 3 个知识库只有 2 个在截止时间内返回：缺席知识库的名额由其余结果补齐
+        List<HybridRetriever.TagResult> results = List.of(
+                tagResult("a", 0.9, 0.8, 0.7),
+                tagResult("b", 0.6, 0.5, 0.4));
+
+        List<Document> merged = hybridRetriever.mergeWithQuotas(results, 3, 6);
+
+        Assert.assertEquals(List.of("a0", "a1", "a2", "b0", "b1", "b2"), ids(merged));
+    }
+
+    @Test
+    public void test_mergeWithQuotas_noResults() {
+        Assert.assertTrue(hybridRetriever.mergeWithQuotas(List.of(), 3, 6).isEmpty());
+    }
+
+    private static HybridRetriever.TagResult tagResult(String ragTag, double... scores) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            documents.add(Document.builder().id(ragTag + i).text("content " + ragTag + i).score(scores[i]).build());
+        }
+        return new HybridRetriever.TagResult(ragTag, documents);
+    }
+
+    private static Document vectorHit(String id) {
+        return Document.builder().id(id).text("content " + id).metadata(Map.of("distance", 0.2)).score(0.8).build();
+    }
+
+    private static Document lexicalHit(String id) {
+        return Document.builder().id(id).text("content " + id).metadata(Map.of()).score(0.1).build();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+}
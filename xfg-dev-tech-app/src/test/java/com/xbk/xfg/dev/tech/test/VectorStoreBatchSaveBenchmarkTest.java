@@ -0,0 +1,148 @@
+package com.xbk.xfg.dev.tech.test;
+
+import com.alibaba.fastjson.JSON;
+import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 向量批量写入基准测试
+ * 对比 PgVectorStore 使用的批量 INSERT 与 VectorStoreRepository.batchSave 使用的 COPY
+ *
+ * 运行：-Dbenchmark.chunks=100000 -Dbenchmark.batch-size=1000
+ * 向量为随机生成，不调用 Embedding 服务，只测量写入耗时
+ * 目标：COPY 吞吐至少为批量 INSERT 的 5 倍（-Dbenchmark.min-speedup 可调整）
+ */
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class VectorStoreBatchSaveBenchmarkTest {
+
+    private static final String INSERT_TAG = "benchmark-insert";
+
+    private static final String COPY_TAG = "benchmark-copy";
+
+    /**
+     * 与 PgVectorStore.doAdd() 相同的写入方式：批量 INSERT
+     */
+    private static final String INSERT_SQL =
+            "INSERT INTO vector_store (id, content, metadata, embedding) VALUES (?, ?, ?, ?)";
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+
+    @Test
+    public void test_batchSave_copy_vs_insert() {
+        int chunks = Integer.getInteger("benchmark.chunks", 100_000);
+        int batchSize = Integer.getInteger("benchmark.batch-size", 1000);
+        double minSpeedup = Double.parseDouble(System.getProperty("benchmark.min-speedup", "5"));
+        int dimension = vectorDimension();
+        log.info("基准测试: {} 个切块, 每批 {} 条, 向量维度 {}", chunks, batchSize, dimension);
+
+        try {
+            long insertNanos = run(INSERT_TAG, chunks, batchSize, dimension, this::insertBatch);
+            long copyNanos = run(COPY_TAG, chunks, batchSize, dimension, vectorStoreRepository::batchSave);
+
+            Assert.assertEquals(chunks, vectorStoreRepository.countByRagTag(INSERT_TAG));
+            Assert.assertEquals(chunks, vectorStoreRepository.countByRagTag(COPY_TAG));
+
+            double insertRate = chunks / (insertNanos / 1e9);
+            double copyRate = chunks / (copyNanos / 1e9);
+            log.info("批量 INSERT: {} ms, {} 条/秒", insertNanos / 1_000_000, (long) insertRate);
+            log.info("COPY       : {} ms, {} 条/秒", copyNanos / 1_000_000, (long) copyRate);
+            double speedup = copyRate / insertRate;
+            log.info("COPY 吞吐提升: {} 倍", String.format("%.2f", speedup));
+            Assert.assertTrue("COPY 吞吐提升 " + String.format("%.2f", speedup) + " 倍，低于目标 " + minSpeedup + " 倍",
+                    speedup >= minSpeedup);
+        } finally {
+            vectorStoreRepository.deleteByRagTag(INSERT_TAG);
+            vectorStoreRepository.deleteByRagTag(COPY_TAG);
+        }
+    }
+
+    private long run(String ragTag, int chunks, int batchSize, int dimension, BatchWriter writer) {
+        Random random = new Random(42);
+        long elapsed = 0;
+        for (int offset = 0; offset < chunks; offset += batchSize) {
+            int size = Math.min(batchSize, chunks - offset);
+            List<Document> documents = new ArrayList<>(size);
+            List<float[]> embeddings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                documents.add(Document.builder()
+                        .text("benchmark chunk " + (offset + i) + "\n\tpublic class Demo { /* 测试内容 */ }")
+                        .metadata(Map.of("knowledge", ragTag, "source_path", "src/Demo" + (offset + i) + ".java"))
+                        .build());
+                embeddings.add(randomVector(random, dimension));
+            }
+
+            // 只统计写入耗时，不包括生成数据
+            long start = System.nanoTime();
+            writer.write(documents, embeddings);
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+
+    private int insertBatch(List<Document> documents, List<float[]> embeddings) {
+        int[] rows = jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Document document = documents.get(i);
+                ps.setObject(1, UUID.fromString(document.getId()));
+                ps.setString(2, document.getText());
+                ps.setObject(3, JSON.toJSONString(document.getMetadata()), Types.OTHER);
+                ps.setObject(4, Arrays.toString(embeddings.get(i)).replace(" ", ""), Types.OTHER);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return documents.size();
+            }
+        });
+        return rows.length;
+    }
+
+    /**
+     * 读取 vector_store.embedding 列的维度（vector(n) 的 atttypmod 即为 n）
+     */
+    private int vectorDimension() {
+        Integer dimension = jdbcTemplate.queryForObject(
+                "SELECT atttypmod FROM pg_attribute WHERE attrelid = 'vector_store'::regclass AND attname = 'embedding'",
+                Integer.class);
+        return dimension != null && dimension > 0 ? dimension : 1536;
+    }
+
+    private float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = random.nextFloat() * 2 - 1;
+        }
+        return vector;
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter {
+        int write(List<Document> documents, List<float[]> embeddings);
+    }
+}
@@ -0,0 +1,211 @@
+package com.xbk.xfg.dev.tech.domain.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量缓存（按内容寻址）
+ *
+ * <h2>为什么需要缓存？</h2>
+ * 重复上传同一个文件、重复分析同一个 Git 仓库、重复提问同一个问题时，
+ * 相同的文本每次都会重新调用 Embedding 服务。
+ *
+ * <h2>缓存 Key</h2>
+ * embedding:cache:{配置ID}:{模型}:{维度}:{SHA-256(文本)}
+ * 作用域由 DynamicEmbeddingFactory 给出，切换 Embedding 配置后自然落到新的作用域，不会读到旧模型的向量
+ *
+ * <h2>两级缓存</h2>
+ * 1. 本地缓存：Caffeine（W-TinyLFU 淘汰），按条数限制大小
+ * 2. Redis 缓存（可选）：多实例共享，按 TTL 过期；一次批量请求只有一次 Redis 往返
+ *
+ * <h2>监控指标</h2>
+ * - rag.embedding.cache.requests{result=hit|miss, tier=local|redis}
+ * - rag.embedding.cache.bytes.saved：命中节省的向量字节数
+ * - cache.gets / cache.size 等 Caffeine 标准指标（cache=rag.embedding）
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class EmbeddingCache {
+
+    private static final String KEY_PREFIX = "embedding:cache:";
+
+    @Value("${rag.embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.embedding.cache.local-max-entries:10000}")
+    private long localMaxEntries;
+
+    @Value("${rag.embedding.cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${rag.embedding.cache.redis.ttl-hours:168}")
+    private long redisTtlHours;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, float[]> localCache;
+
+    private Counter localHits;
+    private Counter redisHits;
+    private Counter misses;
+    private Counter bytesSaved;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "rag.embedding");
+
+        localHits = Counter.builder("rag.embedding.cache.requests")
+                .tag("result", "hit").tag("tier", "local")
+                .register(meterRegistry);
+        redisHits = Counter.builder("rag.embedding.cache.requests")
+                .tag("result", "hit").tag("tier", "redis")
+                .register(meterRegistry);
+        misses = Counter.builder("rag.embedding.cache.requests")
+                .tag("result", "miss").tag("tier", "all")
+                .register(meterRegistry);
+        bytesSaved = Counter.builder("rag.embedding.cache.bytes.saved")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        log.info("向量缓存已初始化: enabled={}, 本地容量={}, Redis={}", enabled, localMaxEntries, redisEnabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算一批文本的缓存 Key
+     *
+     * @param scope 作用域（配置 ID + 模型 + 维度）
+     * @param texts 文本列表
+     * @return 与 texts 一一对应的 Key
+     */
+    public List<String> keysOf(String scope, List<String> texts) {
+        List<String> keys = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            keys.add(KEY_PREFIX + scope + ":" + sha256(text));
+        }
+        return keys;
+    }
+
+    /**
+     * 批量查询，先查本地，再用一次 Redis 往返查询剩余 Key
+     *
+     * @return 命中的 Key → 向量
+     */
+    public Map<String, float[]> getAll(List<String> keys) {
+        // 同一批中的重复文本只统计一次，命中率按去重后的 Key 计算
+        Set<String> distinctKeys = new LinkedHashSet<>(keys);
+        Map<String, float[]> found = new HashMap<>(localCache.getAllPresent(distinctKeys));
+        localHits.increment(found.size());
+
+        if (redisEnabled && found.size() < distinctKeys.size()) {
+            String[] remaining = distinctKeys.stream()
+                    .filter(key -> !found.containsKey(key))
+                    .toArray(String[]::new);
+            try {
+                Map<String, String> encoded = redissonClient.getBuckets(StringCodec.INSTANCE).<String>get(remaining);
+                encoded.forEach((key, value) -> {
+                    float[] vector = decode(value);
+                    found.put(key, vector);
+                    localCache.put(key, vector);
+                });
+                redisHits.increment(encoded.size());
+            } catch (Exception e) {
+                log.warn("读取 Redis 向量缓存失败: {}", e.getMessage());
+            }
+        }
+
+        found.values().forEach(vector -> bytesSaved.increment(vector.length * (double) Float.BYTES));
+        misses.increment(distinctKeys.size() - found.size());
+        return found;
+    }
+
+    /**
+     * 批量写入，Redis 写入异步执行，不阻塞调用方
+     */
+    public void putAll(Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) {
+            return;
+        }
+        localCache.putAll(vectors);
+
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            RBatch batch = redissonClient.createBatch();
+            vectors.forEach((key, vector) ->
+                    batch.<String>getBucket(key, StringCodec.INSTANCE).setAsync(encode(vector), redisTtlHours, TimeUnit.HOURS));
+            batch.executeAsync().exceptionally(e -> {
+                log.warn("写入 Redis 向量缓存失败: {}", e.getMessage());
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("写入 Redis 向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    // ==================== 编解码 ====================
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支持 SHA-256", e);
+        }
+    }
+
+    /**
+     * float[] → Base64，比 JSON 数组节省约一半空间
+     */
+    static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+}
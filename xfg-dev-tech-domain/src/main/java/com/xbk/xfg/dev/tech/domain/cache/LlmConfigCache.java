@@ -0,0 +1,293 @@
+package com.xbk.xfg.dev.tech.domain.cache;
+
+import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 大模型配置本地缓存（近缓存）
+ *
+ * <h2>为什么需要？</h2>
+ * 原实现 LlmConfigDomainService 和两个工厂每次读取配置都访问 Redis（getConfigById、getAllConfigs、激活配置 ID），
+ * 而修改配置后只清理本实例的客户端缓存，其他实例继续使用旧的 API Key / 地址创建的客户端。
+ *
+ * <h2>读</h2>
+ * 配置 Map 和两个激活 ID 打包成一个不可变视图，通过 volatile 引用发布，读取只访问内存。
+ *
+ * <h2>写</h2>
+ * 所有写入经过本类：先写 Redis，再从 Redis 读回并替换本地视图，最后发布到 Redis 主题 llm:provider:changed（消息为配置 ID）。
+ * 每个实例（包括自己）收到消息后从 Redis 重新读取该配置和激活 ID，与本地视图比较，有变化才通知监听方，
+ * 因此重复消息不会重复清理缓存。
+ * 写入方线程与同步线程的刷新互斥执行（读 Redis + 替换视图在同一把锁内），不会出现旧读取覆盖新视图；
+ * 写入方不切换到同步线程执行，因为调用方（如激活 Embedding）可能持有监听方需要的锁，跨线程等待会死锁。
+ *
+ * <h2>兜底</h2>
+ * Redis 断线期间可能错过消息，后台线程每 resync-seconds 秒全量对比一次。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class LlmConfigCache {
+
+    /**
+     * 所有配置：Hash<配置ID, LlmProviderConfigDTO>
+     */
+    private static final String CONFIG_HASH_KEY = "llm:provider:configs";
+
+    /**
+     * 当前激活的对话配置 ID
+     */
+    private static final String ACTIVE_CONFIG_KEY = "llm:provider:active";
+
+    /**
+     * 当前激活的 Embedding 配置 ID
+     */
+    private static final String ACTIVE_EMBEDDING_CONFIG_KEY = "llm:provider:active:embedding";
+
+    private static final String CHANGE_TOPIC = "llm:provider:changed";
+
+    /**
+     * 全量对比间隔（秒）
+     */
+    @Value("${llm.config-cache.resync-seconds:60}")
+    private long resyncSeconds;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private volatile View view = new View(Map.of(), null, null);
+
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 处理变更消息和全量对比的单线程，保证按顺序应用
+     */
+    private ScheduledExecutorService syncExecutor;
+
+    private int listenerId;
+
+    /**
+     * 本地视图：配置 Map + 两个激活 ID，整体替换
+     */
+    private record View(Map<String, LlmProviderConfigDTO> configs, String activeChatId, String activeEmbeddingId) {
+    }
+
+    /**
+     * 配置变更
+     *
+     * @param changedConfigIds       内容被修改或删除的配置 ID
+     * @param activeChatChanged      激活的对话配置发生切换
+     * @param activeEmbeddingChanged 激活的 Embedding 配置发生切换
+     */
+    public record Change(Set<String> changedConfigIds, boolean activeChatChanged, boolean activeEmbeddingChanged) {
+
+        boolean isEmpty() {
+            return changedConfigIds.isEmpty() && !activeChatChanged && !activeEmbeddingChanged;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-config-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 先订阅再加载，保证两者之间的变更不会丢失
+        listenerId = redissonClient.getTopic(CHANGE_TOPIC, StringCodec.INSTANCE)
+                .addListener(String.class, (channel, configId) -> syncExecutor.execute(() -> refreshSafely(configId)));
+        resync();
+        syncExecutor.scheduleWithFixedDelay(this::resyncSafely, resyncSeconds, resyncSeconds, TimeUnit.SECONDS);
+        log.info("大模型配置本地缓存已加载: {} 个配置, 全量对比间隔 {} 秒", view.configs().size(), resyncSeconds);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        redissonClient.getTopic(CHANGE_TOPIC, StringCodec.INSTANCE).removeListener(listenerId);
+        syncExecutor.shutdown();
+    }
+
+    /**
+     * 注册变更监听，本实例或其他实例修改配置后调用
+     */
+    public void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    // ==================== 读：只访问内存 ====================
+
+    /**
+     * 获取配置（共享实例，调用方不要修改）
+     *
+     * @return 配置，不存在返回 null
+     */
+    public LlmProviderConfigDTO getConfig(String id) {
+        return id == null ? null : view.configs().get(id);
+    }
+
+    /**
+     * 获取所有配置（共享实例，调用方不要修改）
+     */
+    public Collection<LlmProviderConfigDTO> getAllConfigs() {
+        return view.configs().values();
+    }
+
+    public boolean containsConfig(String id) {
+        return id != null && view.configs().containsKey(id);
+    }
+
+    public String getActiveChatId() {
+        return view.activeChatId();
+    }
+
+    public String getActiveEmbeddingId() {
+        return view.activeEmbeddingId();
+    }
+
+    // ==================== 写：Redis → 本地视图 → 广播 ====================
+
+    public void saveConfig(LlmProviderConfigDTO config) {
+        RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
+        configMap.put(config.getId(), config);
+        applyAndPublish(config.getId());
+    }
+
+    public void removeConfig(String id) {
+        RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
+        configMap.remove(id);
+        applyAndPublish(id);
+    }
+
+    public void setActiveChatId(String id) {
+        redissonClient.getBucket(ACTIVE_CONFIG_KEY).set(id);
+        applyAndPublish(id);
+    }
+
+    public void setActiveEmbeddingId(String id) {
+        redissonClient.getBucket(ACTIVE_EMBEDDING_CONFIG_KEY).set(id);
+        applyAndPublish(id);
+    }
+
+    /**
+     * 本实例立即生效（写入方读到自己的修改），再通知其他实例
+     */
+    private void applyAndPublish(String configId) {
+        refresh(configId);
+        redissonClient.getTopic(CHANGE_TOPIC, StringCodec.INSTANCE).publish(configId);
+    }
+
+    // ==================== 同步 ====================
+
+    /**
+     * 从 Redis 重新读取一个配置和激活 ID，与本地视图比较后替换
+     * 读取 Redis 与替换视图在同一把锁内：写入线程和同步线程并发刷新时，先读到的旧数据不会覆盖后读到的新数据
+     */
+    private void refresh(String configId) {
+        Change change;
+        synchronized (this) {
+            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
+            LlmProviderConfigDTO config = configMap.get(configId);
+            Map<String, String> actives = redissonClient.getBuckets().get(ACTIVE_CONFIG_KEY, ACTIVE_EMBEDDING_CONFIG_KEY);
+
+            View current = view;
+            Map<String, LlmProviderConfigDTO> configs = new HashMap<>(current.configs());
+            if (config != null) {
+                configs.put(configId, config);
+            } else {
+                configs.remove(configId);
+            }
+            View next = new View(Map.copyOf(configs), actives.get(ACTIVE_CONFIG_KEY), actives.get(ACTIVE_EMBEDDING_CONFIG_KEY));
+            change = diff(current, next);
+            view = next;
+        }
+        notifyListeners(change);
+    }
+
+    /**
+     * 全量读取 Redis 并与本地视图比较
+     */
+    private void resync() {
+        Change change;
+        synchronized (this) {
+            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
+            Map<String, LlmProviderConfigDTO> configs = configMap.readAllMap();
+            Map<String, String> actives = redissonClient.getBuckets().get(ACTIVE_CONFIG_KEY, ACTIVE_EMBEDDING_CONFIG_KEY);
+
+            View current = view;
+            View next = new View(Map.copyOf(configs), actives.get(ACTIVE_CONFIG_KEY), actives.get(ACTIVE_EMBEDDING_CONFIG_KEY));
+            change = diff(current, next);
+            view = next;
+        }
+        notifyListeners(change);
+    }
+
+    private void refreshSafely(String configId) {
+        try {
+            refresh(configId);
+        } catch (Exception e) {
+            log.warn("同步配置 {} 失败，等待下一次全量对比: {}", configId, e.getMessage());
+        }
+    }
+
+    private void resyncSafely() {
+        try {
+            resync();
+        } catch (Exception e) {
+            log.warn("全量同步大模型配置失败: {}", e.getMessage());
+        }
+    }
+
+    private static Change diff(View current, View next) {
+        Set<String> changed = new HashSet<>();
+        current.configs().forEach((id, config) -> {
+            if (!Objects.equals(config, next.configs().get(id))) {
+                changed.add(id);
+            }
+        });
+        next.configs().keySet().stream()
+                .filter(id -> !current.configs().containsKey(id))
+                .forEach(changed::add);
+        return new Change(changed,
+                !Objects.equals(current.activeChatId(), next.activeChatId()),
+                !Objects.equals(current.activeEmbeddingId(), next.activeEmbeddingId()));
+    }
+
+    /**
+     * 在锁外通知，避免与监听方自己的锁形成死锁
+     */
+    private void notifyListeners(Change change) {
+        if (change.isEmpty()) {
+            return;
+        }
+        log.info("大模型配置变更: 配置 {}, 对话激活切换={}, Embedding 激活切换={}",
+                change.changedConfigIds(), change.activeChatChanged(), change.activeEmbeddingChanged());
+        for (Consumer<Change> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                log.warn("处理大模型配置变更失败: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.xbk.xfg.dev.tech.domain.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xbk.xfg.dev.tech.domain.factory.DynamicEmbeddingFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存（RAG 对话用）
+ *
+ * <h2>为什么单独缓存？</h2>
+ * 用户每天会把同样的常见问题问上百次，每次都要调用一次 Embedding 服务。
+ * {@link EmbeddingCache} 按原文精确匹配，而且与导入切块共用容量，一次大仓库导入就会把问题向量挤出去；
+ * 这里按归一化后的问题文本缓存，容量和过期时间独立配置。
+ *
+ * <h2>缓存 Key</h2>
+ * query:embedding:{配置ID}:{模型}:{维度}:{SHA-256(归一化文本)}
+ * 归一化：NFKC（全角转半角）→ 转小写 → 合并连续空白 → 去掉首尾空白
+ *
+ * <h2>两级缓存</h2>
+ * 1. 本地缓存：Caffeine，按条数限制大小，写入后 TTL 过期
+ * 2. Redis 缓存（可选）：多实例共享，同样按 TTL 过期
+ *
+ * <h2>监控指标</h2>
+ * - rag.query.embedding.cache.requests{result=hit|miss, tier=local|redis}
+ * - cache.gets / cache.size 等 Caffeine 标准指标（cache=rag.query.embedding）
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class QueryEmbeddingCache {
+
+    private static final String KEY_PREFIX = "query:embedding:";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${rag.query-embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.query-embedding.cache.local-max-entries:2000}")
+    private long localMaxEntries;
+
+    @Value("${rag.query-embedding.cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${rag.query-embedding.cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Resource
+    private DynamicEmbeddingFactory dynamicEmbeddingFactory;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, float[]> localCache;
+
+    private Counter localHits;
+    private Counter redisHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxEntries)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "rag.query.embedding");
+
+        localHits = Counter.builder("rag.query.embedding.cache.requests")
+                .tag("result", "hit").tag("tier", "local")
+                .register(meterRegistry);
+        redisHits = Counter.builder("rag.query.embedding.cache.requests")
+                .tag("result", "hit").tag("tier", "redis")
+                .register(meterRegistry);
+        misses = Counter.builder("rag.query.embedding.cache.requests")
+                .tag("result", "miss").tag("tier", "all")
+                .register(meterRegistry);
+
+        log.info("查询向量缓存已初始化: enabled={}, 本地容量={}, TTL={}分钟, Redis={}",
+                enabled, localMaxEntries, ttlMinutes, redisEnabled);
+    }
+
+    /**
+     * 获取查询向量，未命中时调用 loader 计算并写入缓存
+     *
+     * @param query  用户问题原文
+     * @param loader 未命中时计算向量（调用 Embedding 服务）
+     */
+    public float[] get(String query, Supplier<float[]> loader) {
+        if (!enabled || query == null) {
+            return loader.get();
+        }
+        String key;
+        try {
+            key = KEY_PREFIX + dynamicEmbeddingFactory.getActiveEmbedding().cacheScope() + ":"
+                    + EmbeddingCache.sha256(normalize(query));
+        } catch (Exception e) {
+            // 没有激活的 Embedding 配置时交给 loader 报错
+            return loader.get();
+        }
+
+        float[] vector = localCache.getIfPresent(key);
+        if (vector != null) {
+            localHits.increment();
+            return vector;
+        }
+
+        RBucket<String> bucket = redisEnabled ? redissonClient.getBucket(key, StringCodec.INSTANCE) : null;
+        if (bucket != null) {
+            try {
+                String encoded = bucket.get();
+                if (encoded != null) {
+                    vector = EmbeddingCache.decode(encoded);
+                    localCache.put(key, vector);
+                    redisHits.increment();
+                    return vector;
+                }
+            } catch (Exception e) {
+                log.warn("读取 Redis 查询向量缓存失败: {}", e.getMessage());
+            }
+        }
+
+        misses.increment();
+        vector = loader.get();
+        localCache.put(key, vector);
+        if (bucket != null) {
+            bucket.setAsync(EmbeddingCache.encode(vector), ttlMinutes, TimeUnit.MINUTES).exceptionally(e -> {
+                log.warn("写入 Redis 查询向量缓存失败: {}", e.getMessage());
+                return null;
+            });
+        }
+        return vector;
+    }
+
+    /**
+     * 问题文本归一化，让只有大小写、全半角、空白差异的问题命中同一条缓存
+     */
+    static String normalize(String query) {
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,243 @@
+package com.xbk.xfg.dev.tech.domain.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xbk.xfg.dev.tech.domain.factory.DynamicEmbeddingFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 语义回答缓存（RAG 对话用）
+ *
+ * <h2>为什么需要？</h2>
+ * 同一批知识库上相同或几乎相同的问题，每次都要完整调用一次大模型，既慢又花钱。
+ * 缓存 (问题向量, 知识库, 模型, 回答)，新问题的向量与缓存条目的余弦相似度超过阈值时直接回放缓存的回答。
+ *
+ * <h2>作用域</h2>
+ * Embedding 作用域（配置 ID + 模型 + 维度）+ 提供商 + 模型 + 排序后的知识库标签，只在同一作用域内比较相似度；
+ * 切换 Embedding 配置后问题向量与缓存条目不在同一向量空间，落到新的作用域而不是做无意义的相似度比较；
+ * 每个作用域最多保留 max-entries-per-scope 条，逐条计算余弦相似度（几百条 × 1536 维，微秒级）。
+ *
+ * <h2>失效</h2>
+ * 每个知识库在 Redis 中有一个版本号 rag:kb:version:{ragTag}，知识库被修改或删除时递增（{@link #invalidate}）。
+ * 条目记录生成回答前读取的版本号，查询时版本号不一致即视为过期并丢弃。
+ * 版本号在 Redis 中，多实例部署时任何一个实例修改知识库，其他实例的缓存同样失效。
+ * Redis 不可用时读不到版本号，本次请求绕过缓存（不查询也不写入），RAG 对话照常进行。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class SemanticAnswerCache {
+
+    private static final String VERSION_KEY_PREFIX = "rag:kb:version:";
+
+    @Value("${rag.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 命中所需的最低余弦相似度
+     */
+    @Value("${rag.answer-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${rag.answer-cache.max-scopes:1000}")
+    private long maxScopes;
+
+    @Value("${rag.answer-cache.max-entries-per-scope:200}")
+    private int maxEntriesPerScope;
+
+    @Value("${rag.answer-cache.ttl-minutes:720}")
+    private long ttlMinutes;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private DynamicEmbeddingFactory dynamicEmbeddingFactory;
+
+    /**
+     * 作用域 → 条目（按写入顺序，满了淘汰最早的）
+     */
+    private Cache<String, List<Entry>> scopes;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter stale;
+
+    @PostConstruct
+    public void init() {
+        scopes = Caffeine.newBuilder()
+                .maximumSize(maxScopes)
+                .expireAfterAccess(Duration.ofMinutes(ttlMinutes))
+                .build();
+        hits = Counter.builder("rag.answer.cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("rag.answer.cache.requests").tag("result", "miss").register(meterRegistry);
+        stale = Counter.builder("rag.answer.cache.requests").tag("result", "stale").register(meterRegistry);
+        log.info("语义回答缓存已初始化: enabled={}, 相似度阈值={}, 每作用域 {} 条, TTL={}分钟",
+                enabled, similarityThreshold, maxEntriesPerScope, ttlMinutes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 作用域 Key：Embedding 作用域 + 提供商 + 模型 + 排序后的知识库标签
+     */
+    public String scope(String providerType, String model, Collection<String> ragTags) {
+        return dynamicEmbeddingFactory.getActiveEmbedding().cacheScope() + ":" + providerType + ":" + model
+                + ":" + String.join(",", new TreeSet<>(ragTags));
+    }
+
+    /**
+     * 读取知识库当前版本号（一次 Redis 往返），从未修改过的知识库版本号为 0
+     *
+     * @return 版本号；Redis 读取失败返回 null，调用方本次绕过缓存
+     */
+    public Map<String, String> versions(Collection<String> ragTags) {
+        String[] keys = ragTags.stream().map(tag -> VERSION_KEY_PREFIX + tag).distinct().toArray(String[]::new);
+        Map<String, String> stored;
+        try {
+            stored = redissonClient.getBuckets(StringCodec.INSTANCE).get(keys);
+        } catch (Exception e) {
+            log.warn("读取知识库版本号失败，本次绕过语义回答缓存: {}", e.getMessage());
+            return null;
+        }
+        Map<String, String> versions = new HashMap<>();
+        for (String tag : ragTags) {
+            versions.put(tag, stored.getOrDefault(VERSION_KEY_PREFIX + tag, "0"));
+        }
+        return versions;
+    }
+
+    /**
+     * 查找相似问题的缓存回答
+     *
+     * @param scope     作用域
+     * @param embedding 问题向量
+     * @param versions  知识库当前版本号，为 null 时不查询
+     * @return 命中的条目，未命中返回 null
+     */
+    public Entry lookup(String scope, float[] embedding, Map<String, String> versions) {
+        if (!enabled || versions == null) {
+            return null;
+        }
+        List<Entry> entries = scopes.getIfPresent(scope);
+        if (entries == null) {
+            misses.increment();
+            return null;
+        }
+
+        Entry best = null;
+        double bestSimilarity = similarityThreshold;
+        long expireBefore = System.currentTimeMillis() - Duration.ofMinutes(ttlMinutes).toMillis();
+        synchronized (entries) {
+            int before = entries.size();
+            entries.removeIf(entry -> !entry.versions().equals(versions) || entry.createdAt() < expireBefore);
+            if (entries.size() < before) {
+                stale.increment(before - entries.size());
+            }
+            for (Entry entry : entries) {
+                double similarity = cosine(embedding, entry.embedding());
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        log.info("【RAG】语义回答缓存命中，相似度 {}", String.format("%.4f", bestSimilarity));
+        return best;
+    }
+
+    /**
+     * 写入回答
+     *
+     * @param versions 生成回答之前读取的版本号，生成过程中知识库被修改时条目写入即过期；为 null 时不写入
+     */
+    public void put(String scope, float[] embedding, Map<String, String> versions, List<Document> sources, String answer) {
+        if (!enabled || versions == null || answer == null || answer.isBlank()) {
+            return;
+        }
+        // 只保留来源元数据，不保留文档正文
+        List<Document> sourceRefs = sources.stream()
+                .map(document -> Document.builder()
+                        .id(document.getId())
+                        .text("")
+                        .metadata(document.getMetadata())
+                        .score(document.getScore())
+                        .build())
+                .toList();
+        Entry entry = new Entry(embedding, Map.copyOf(versions), sourceRefs, answer, System.currentTimeMillis());
+
+        List<Entry> entries = scopes.get(scope, key -> new ArrayList<>());
+        synchronized (entries) {
+            entries.add(entry);
+            while (entries.size() > maxEntriesPerScope) {
+                entries.remove(0);
+            }
+        }
+    }
+
+    /**
+     * 知识库被修改或删除时调用，使所有涉及该知识库的缓存回答失效
+     */
+    public void invalidate(String ragTag) {
+        try {
+            long version = redissonClient.getAtomicLong(VERSION_KEY_PREFIX + ragTag).incrementAndGet();
+            log.info("知识库 {} 版本号更新为 {}，相关缓存回答失效", ragTag, version);
+        } catch (Exception e) {
+            log.warn("更新知识库 {} 版本号失败: {}", ragTag, e.getMessage());
+        }
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? -1 : dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param embedding 问题向量
+     * @param versions  生成回答时各知识库的版本号
+     * @param sources   参考来源（只有元数据）
+     * @param answer    完整回答
+     * @param createdAt 写入时间
+     */
+    public record Entry(float[] embedding, Map<String, String> versions, List<Document> sources,
+                        String answer, long createdAt) {
+    }
+}
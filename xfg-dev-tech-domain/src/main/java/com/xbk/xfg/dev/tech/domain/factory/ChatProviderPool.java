@@ -0,0 +1,199 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory.ChatClientWrapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对话提供商池
+ * 激活的配置 + poolWeight > 0 的配置组成一个池，按负载分配请求，失败时切换到下一个可用的提供商
+ *
+ * <h2>为什么需要？</h2>
+ * 原实现只有一个激活配置，该提供商变慢或被限流时所有请求一起变慢，p99 延迟完全取决于这一个提供商。
+ *
+ * <h2>路由：加权最少在途请求</h2>
+ * 选择 (在途请求数 + 1) / 权重 最小的提供商，相同时优先激活的配置。
+ * 比轮询更适合大模型：某个提供商变慢时它的在途请求堆积，新请求自然流向其他提供商。
+ *
+ * <h2>健康</h2>
+ * 由 {@link ProviderGuard} 按配置统计：熔断中的提供商排在最后，并发已满或熔断时快速失败并切换到下一个。
+ *
+ * <h2>故障转移</h2>
+ * call：失败后换下一个提供商，最多尝试 max-attempts 个。
+ * stream：只在还没有输出任何内容之前切换；已经输出内容后出错直接返回错误，避免前端收到两段拼接的回答。
+ * 开启对冲时（{@link ChatStreamHedger}），首 Token 迟迟不到会从下一个提供商发出对冲请求。
+ *
+ * <h2>模型</h2>
+ * 激活的配置使用请求原样的提示词；其他提供商在请求的模型位于其模型列表中时沿用，否则使用其默认模型。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class ChatProviderPool {
+
+    /**
+     * 单次请求最多尝试的提供商数
+     */
+    @Value("${llm.pool.max-attempts:3}")
+    private int maxAttempts;
+
+    @Resource
+    private ChatStreamHedger chatStreamHedger;
+
+    @Resource
+    private ProviderGuard providerGuard;
+
+    /**
+     * 池成员
+     *
+     * @param configId 配置 ID
+     * @param config   配置详情
+     * @param client   该配置的客户端
+     * @param weight   权重
+     */
+    public record Member(String configId, LlmProviderConfigDTO config, ChatClientWrapper client, int weight) {
+    }
+
+    /**
+     * 把成员包装成一个客户端，第一个成员为激活的配置
+     * 只有一个成员时也包装，请求统一经过熔断、并发上限、对冲和首 Token 耗时统计
+     */
+    public ChatClientWrapper wrap(List<Member> members) {
+        return new PooledChatClient(List.copyOf(members));
+    }
+
+    /**
+     * 本次请求的尝试顺序：可用的在前，按 (在途 + 1) / 权重 升序（稳定排序，相同时保持激活配置在前）；熔断中的排在最后
+     */
+    private List<Member> order(List<Member> members) {
+        List<Member> available = new ArrayList<>(members.size());
+        List<Member> open = new ArrayList<>();
+        for (Member member : members) {
+            (providerGuard.isAvailable(ProviderGuard.CHAT, member.configId()) ? available : open).add(member);
+        }
+        available.sort(Comparator.comparingDouble(
+                member -> (providerGuard.inFlight(ProviderGuard.CHAT, member.configId()) + 1.0) / member.weight()));
+        available.addAll(open);
+        return available.subList(0, Math.min(Math.max(1, maxAttempts), available.size()));
+    }
+
+    private ProviderGuard.Permit acquire(Member member) {
+        return providerGuard.acquire(ProviderGuard.CHAT, member.configId(), member.config().getName());
+    }
+
+    private final class PooledChatClient implements ChatClientWrapper {
+
+        private final List<Member> members;
+
+        private PooledChatClient(List<Member> members) {
+            this.members = members;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            RuntimeException last = null;
+            for (Member member : order(members)) {
+                ProviderGuard.Permit permit;
+                try {
+                    permit = acquire(member);
+                } catch (ProviderUnavailableException e) {
+                    last = e;
+                    continue;
+                }
+                try {
+                    ChatResponse response = member.client().call(promptFor(member, prompt));
+                    permit.success();
+                    return response;
+                } catch (RuntimeException e) {
+                    permit.failure(e);
+                    log.warn("提供商 {} 调用失败: {}", member.config().getName(), e.getMessage());
+                    last = e;
+                } finally {
+                    permit.release();
+                }
+            }
+            throw last;
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.defer(() -> {
+                List<Member> ordered = order(members);
+                // 对冲请求从下一个提供商开始，只有一个提供商时发给同一个
+                List<Member> backupOrder = new ArrayList<>(ordered.subList(1, ordered.size()));
+                backupOrder.add(ordered.get(0));
+                return chatStreamHedger.stream(
+                        () -> streamFrom(ordered, 0, prompt),
+                        () -> streamFrom(backupOrder, 0, prompt));
+            });
+        }
+
+        private Flux<ChatResponse> streamFrom(List<Member> ordered, int index, Prompt prompt) {
+            Member member = ordered.get(index);
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> {
+                        // 熔断或并发已满时直接抛出，由下面的 onErrorResume 切换到下一个提供商
+                        ProviderGuard.Permit permit = acquire(member);
+                        Flux<ChatResponse> upstream;
+                        try {
+                            upstream = member.client().stream(promptFor(member, prompt));
+                        } catch (RuntimeException e) {
+                            permit.failure(e);
+                            permit.release();
+                            throw e;
+                        }
+                        // 首 Token 到达即视为成功，耗时即首 Token 耗时；被取消（对冲落败、客户端断开）只归还许可
+                        return upstream
+                                .doOnNext(response -> {
+                                    if (emitted.compareAndSet(false, true)) {
+                                        permit.success();
+                                    }
+                                })
+                                .doOnComplete(permit::success)
+                                .doOnError(permit::failure)
+                                .doFinally(signal -> permit.release());
+                    })
+                    .onErrorResume(e -> {
+                        if (!(e instanceof ProviderUnavailableException)) {
+                            log.warn("提供商 {} 流式调用失败: {}", member.config().getName(), e.getMessage());
+                        }
+                        if (emitted.get() || index + 1 >= ordered.size()) {
+                            return Flux.error(e);
+                        }
+                        log.info("切换到提供商 {} 重新生成", ordered.get(index + 1).config().getName());
+                        return streamFrom(ordered, index + 1, prompt);
+                    });
+        }
+
+        private Prompt promptFor(Member member, Prompt prompt) {
+            if (member == members.get(0)) {
+                return prompt;
+            }
+            LlmProviderConfigDTO config = member.config();
+            String requested = prompt.getOptions() != null ? prompt.getOptions().getModel() : null;
+            List<String> models = config.getModels() != null ? config.getModels() : List.of();
+            String model;
+            if (requested != null && models.contains(requested)) {
+                model = requested;
+            } else if (config.getDefaultModel() != null && !config.getDefaultModel().isEmpty()) {
+                model = config.getDefaultModel();
+            } else {
+                model = models.get(0);
+            }
+            return new Prompt(prompt.getInstructions(),
+                    DynamicChatClientFactory.createOptions(config.getProviderType(), model));
+        }
+    }
+}
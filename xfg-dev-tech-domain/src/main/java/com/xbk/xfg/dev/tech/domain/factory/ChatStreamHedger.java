@@ -0,0 +1,195 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 流式对话对冲请求
+ *
+ * <h2>为什么需要？</h2>
+ * 流式对话的尾延迟主要来自上游偶尔很慢的首个 Token：同样的请求重发一次，往往很快就能拿到首 Token。
+ *
+ * <h2>做法</h2>
+ * 主请求发出后 delay-millis 内没有收到任何内容，再发一个对冲请求（提供商池中的下一个提供商，没有则同一个），
+ * 两者中先输出内容的一方胜出（{@link Flux#firstWithValue}），另一方立即取消。
+ * 主请求在等待期间就输出了内容时不会发出对冲请求，没有额外开销。
+ * 主请求在等待期间失败或没有内容就结束时（例如提供商池全部快速失败），取消对冲计时，错误立即返回，
+ * 对冲只用于首 Token 慢的情况，不会在失败后再跑一轮完整的故障切换。
+ *
+ * <h2>成本上限</h2>
+ * 令牌桶：每个请求补充 max-ratio 个令牌（最多积累 10 个），每次对冲消耗 1 个，
+ * 长期对冲比例不超过 max-ratio，上游整体变慢时也不会让请求量翻倍。
+ *
+ * <h2>指标</h2>
+ * - llm.chat.ttft：首 Token 耗时（含 p95），用来确定 delay-millis
+ * - llm.chat.hedge.requests{result=none|primary|hedge|throttled}：
+ *   对冲率 = (primary + hedge) / 总数，对冲胜率 = hedge / (primary + hedge)
+ *
+ * <h2>配置</h2>
+ * llm.hedge.enabled：默认关闭，只记录首 Token 耗时
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class ChatStreamHedger {
+
+    private static final double MAX_BUDGET = 10;
+
+    private static final int NONE = -1;
+    private static final int PRIMARY = 0;
+    private static final int HEDGE = 1;
+
+    @Value("${llm.hedge.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 等待首 Token 多久后发出对冲请求，建议设置为首 Token 耗时的 p95
+     */
+    @Value("${llm.hedge.delay-millis:3000}")
+    private long delayMillis;
+
+    /**
+     * 对冲请求占总请求的比例上限
+     */
+    @Value("${llm.hedge.max-ratio:0.1}")
+    private double maxRatio;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private double budget = MAX_BUDGET;
+
+    private Timer firstTokenTimer;
+    private Counter notHedged;
+    private Counter primaryWon;
+    private Counter hedgeWon;
+    private Counter throttled;
+
+    @PostConstruct
+    public void init() {
+        firstTokenTimer = Timer.builder("llm.chat.ttft")
+                .description("流式对话首 Token 耗时")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        notHedged = hedgeCounter("none");
+        primaryWon = hedgeCounter("primary");
+        hedgeWon = hedgeCounter("hedge");
+        throttled = hedgeCounter("throttled");
+        if (enabled) {
+            log.info("流式对话对冲已开启: 等待 {} ms, 对冲比例上限 {}", delayMillis, maxRatio);
+        }
+    }
+
+    private Counter hedgeCounter(String result) {
+        return Counter.builder("llm.chat.hedge.requests").tag("result", result).register(meterRegistry);
+    }
+
+    /**
+     * 执行流式请求，必要时对冲
+     *
+     * @param primary 主请求
+     * @param backup  对冲请求，只在主请求 delay-millis 内没有输出时才会订阅
+     */
+    public Flux<ChatResponse> stream(Supplier<Flux<ChatResponse>> primary, Supplier<Flux<ChatResponse>> backup) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            if (!enabled) {
+                return primary.get().doOnNext(response -> recordFirstToken(firstToken, start));
+            }
+
+            refillBudget();
+            AtomicInteger winner = new AtomicInteger(NONE);
+            AtomicBoolean hedged = new AtomicBoolean();
+            AtomicBoolean denied = new AtomicBoolean();
+
+            // 主请求结束的信号；不能再订阅一次 main（会重复发出主请求）
+            Sinks.Empty<Void> mainTerminated = Sinks.empty();
+            Flux<ChatResponse> main = primary.get()
+                    .doOnNext(response -> winner.compareAndSet(NONE, PRIMARY))
+                    .doOnTerminate(mainTerminated::tryEmitEmpty);
+            Flux<ChatResponse> hedge = Mono.delay(Duration.ofMillis(delayMillis))
+                    // 主请求在计时结束前就失败或空结束：不再发出对冲请求，firstWithValue 立即返回主请求的错误
+                    .takeUntilOther(mainTerminated.asMono())
+                    .filter(tick -> {
+                        if (tryAcquireBudget()) {
+                            return true;
+                        }
+                        denied.set(true);
+                        return false;
+                    })
+                    .flatMapMany(tick -> {
+                        hedged.set(true);
+                        log.info("{} ms 内未收到首 Token，发出对冲请求", delayMillis);
+                        return backup.get();
+                    })
+                    .doOnNext(response -> winner.compareAndSet(NONE, HEDGE));
+
+            return Flux.firstWithValue(main, hedge)
+                    .doOnNext(response -> recordFirstToken(firstToken, start))
+                    .onErrorResume(NoSuchElementException.class, ChatStreamHedger::unwrap)
+                    .doFinally(signal -> {
+                        if (!hedged.get()) {
+                            (denied.get() ? throttled : notHedged).increment();
+                        } else if (winner.get() == HEDGE) {
+                            hedgeWon.increment();
+                        } else {
+                            primaryWon.increment();
+                        }
+                    });
+        });
+    }
+
+    private void recordFirstToken(AtomicBoolean firstToken, long start) {
+        if (firstToken.compareAndSet(false, true)) {
+            firstTokenTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void refillBudget() {
+        budget = Math.min(MAX_BUDGET, budget + maxRatio);
+    }
+
+    private synchronized boolean tryAcquireBudget() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * 两路都没有输出时 firstWithValue 返回 NoSuchElementException，原因中包含每一路的结果（空流也记为 NoSuchElementException）：
+     * 有原始错误时返回第一个原始错误，都是正常结束（没有内容）时视为空流
+     */
+    private static Flux<ChatResponse> unwrap(NoSuchElementException e) {
+        if (e.getCause() == null) {
+            return Flux.error(e);
+        }
+        for (Throwable cause : Exceptions.unwrapMultiple(e.getCause())) {
+            if (!(cause instanceof NoSuchElementException)) {
+                return Flux.error(cause);
+            }
+        }
+        return Flux.empty();
+    }
+}
@@ -0,0 +1,316 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * 合并请求的 EmbeddingModel（微批处理）
+ *
+ * <h2>为什么需要合并？</h2>
+ * 每次 pgVectorStore.accept() 和每次 RAG 检索都会单独调用一次 EmbeddingModel.call()，
+ * 并发对话时几十个线程各自发起只包含一条文本的 HTTP 请求，大部分耗时花在网络往返上。
+ *
+ * <h2>合并策略</h2>
+ * 1. 调用线程把请求放入队列后等待结果
+ * 2. 后台合并线程取到第一个请求后，最多再等待 windowMillis 收集后续请求
+ * 3. 文本数达到提供商的最大批量（{@link DynamicEmbeddingFactory#getActiveMaxBatchSize()}）时立即发送
+ * 4. 一次批量调用返回后，按顺序把向量拆分回各个请求
+ * 5. 批量调用因输入错误失败（400 / 413 / 422、超出上下文长度、非法输入）时对半拆分重试，只让包含异常输入的请求失败；
+ *    限流、超时、5xx、连接重置等与输入无关的错误拆分后只会同样失败，整批立即失败，不再额外调用提供商
+ *
+ * 本身已经足够大的请求（文本数达到最大批量）直接透传，不进入队列。
+ *
+ * @author xiexu
+ */
+@Slf4j
+public class CoalescingEmbeddingModel implements EmbeddingModel {
+
+    /**
+     * 与输入相关的 HTTP 状态码：请求格式错误、请求体过大、无法处理的输入
+     */
+    private static final Set<Integer> INPUT_ERROR_STATUS = Set.of(400, 413, 422);
+
+    /**
+     * 提供商在错误信息中描述输入问题的关键字（不同提供商状态码不统一）
+     */
+    private static final List<String> INPUT_ERROR_KEYWORDS = List.of(
+            "context length", "context_length", "maximum context", "too many tokens",
+            "invalid input", "invalid_input", "input is too long");
+
+    private final EmbeddingModel delegate;
+    private final IntSupplier maxBatchSize;
+    private final long windowNanos;
+
+    private final LinkedBlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * 实际发送批量请求的线程池，限制同时在途的批次数
+     */
+    private final ExecutorService dispatcher;
+
+    private final Thread collector;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate             实际执行向量化的模型
+     * @param maxBatchSize         当前提供商单批最大文本数
+     * @param windowMillis         合并窗口（毫秒）
+     * @param maxConcurrentBatches 同时在途的批次数
+     */
+    public CoalescingEmbeddingModel(EmbeddingModel delegate, IntSupplier maxBatchSize,
+                                    long windowMillis, int maxConcurrentBatches) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+
+        AtomicInteger index = new AtomicInteger(0);
+        int threads = Math.max(1, maxConcurrentBatches);
+        this.dispatcher = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "embedding-batch-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.collector = new Thread(this::collectLoop, "embedding-coalescer");
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        if (texts == null || texts.isEmpty() || texts.size() >= resolveMaxBatchSize() || !running) {
+            return delegate.call(request);
+        }
+
+        PendingRequest pending = new PendingRequest(texts, request.getOptions());
+        queue.add(pending);
+        // shutdown() 可能在入队前已经清空队列：还能从队列中移除说明没有线程会处理它，直接透传
+        if (!running && queue.remove(pending)) {
+            return delegate.call(request);
+        }
+        try {
+            return pending.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    /**
+     * 停止合并线程，队列中剩余的请求直接透传
+     */
+    public void shutdown() {
+        running = false;
+        collector.interrupt();
+        PendingRequest pending;
+        while ((pending = queue.poll()) != null) {
+            dispatch(List.of(pending));
+        }
+        dispatcher.shutdown();
+    }
+
+    // ==================== 合并逻辑 ====================
+
+    private void collectLoop() {
+        PendingRequest carry = null;
+        List<PendingRequest> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingRequest first = carry != null ? carry : queue.take();
+                carry = null;
+
+                int limit = resolveMaxBatchSize();
+                batch = new ArrayList<>();
+                batch.add(first);
+                int textCount = first.texts.size();
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (textCount < limit) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRequest next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    // 选项不同（模型/维度不同）或超出批量上限的请求留到下一批
+                    if (!first.sameOptions(next) || textCount + next.texts.size() > limit) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    textCount += next.texts.size();
+                }
+
+                dispatch(batch);
+                batch = new ArrayList<>();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // 收集中被中断：已取出的请求不在队列中，shutdown() 清空队列时不会处理，在这里发出
+                if (!batch.isEmpty()) {
+                    dispatch(batch);
+                }
+                if (carry != null) {
+                    dispatch(List.of(carry));
+                }
+                return;
+            } catch (Exception e) {
+                log.error("Embedding 合并线程异常", e);
+            }
+        }
+    }
+
+    private void dispatch(List<PendingRequest> batch) {
+        try {
+            dispatcher.execute(() -> execute(batch));
+        } catch (Exception e) {
+            // 线程池已关闭时在当前线程执行，保证调用方不会一直等待
+            execute(batch);
+        }
+    }
+
+    private void execute(List<PendingRequest> batch) {
+        try {
+            complete(batch);
+        } catch (Exception e) {
+            // 一条异常输入（如超长文本）不应连累合并进同一批的其他请求：对半拆分后分别重试，
+            // 最终只有包含异常输入的请求失败。其他错误拆分后只会同样失败，整批直接返回
+            if (batch.size() > 1 && isInputError(e)) {
+                log.warn("合并的 Embedding 批量调用失败，拆分为两批重试（{} 个请求）: {}", batch.size(), e.getMessage());
+                int middle = batch.size() / 2;
+                execute(batch.subList(0, middle));
+                execute(batch.subList(middle, batch.size()));
+                return;
+            }
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+        }
+    }
+
+    private void complete(List<PendingRequest> batch) {
+        List<String> texts = new ArrayList<>();
+        batch.forEach(pending -> texts.addAll(pending.texts));
+
+        EmbeddingResponse response = delegate.call(new EmbeddingRequest(texts, batch.get(0).options));
+        List<Embedding> results = response.getResults();
+        if (results.size() != texts.size()) {
+            throw new IllegalStateException("Embedding 返回数量不匹配: 期望 " + texts.size() + ", 实际 " + results.size());
+        }
+        if (batch.size() > 1) {
+            log.debug("合并 {} 个 Embedding 请求为 1 次调用，共 {} 条文本", batch.size(), texts.size());
+        }
+
+        int offset = 0;
+        for (PendingRequest pending : batch) {
+            List<Embedding> embeddings = new ArrayList<>(pending.texts.size());
+            for (int i = 0; i < pending.texts.size(); i++) {
+                embeddings.add(new Embedding(results.get(offset + i).getOutput(), i));
+            }
+            offset += pending.texts.size();
+            pending.future.complete(new EmbeddingResponse(embeddings));
+        }
+    }
+
+    /**
+     * 是否是由某条输入引起的错误（拆分后其余输入可以成功）
+     */
+    static boolean isInputError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ProviderUnavailableException) {
+                return false;
+            }
+            Integer status = null;
+            if (cause instanceof RestClientResponseException responseException) {
+                status = responseException.getStatusCode().value();
+            } else if (cause instanceof WebClientResponseException responseException) {
+                status = responseException.getStatusCode().value();
+            } else if (cause instanceof NonTransientAiException && cause.getMessage() != null) {
+                // Spring AI 的默认错误处理把 4xx 包装为 "400 BAD_REQUEST - {body}"（429 也在其中，按状态码区分）
+                String message = cause.getMessage().trim();
+                if (message.length() >= 3 && message.substring(0, 3).chars().allMatch(Character::isDigit)) {
+                    status = Integer.parseInt(message.substring(0, 3));
+                }
+            }
+            if (status != null) {
+                return INPUT_ERROR_STATUS.contains(status);
+            }
+            if (cause.getMessage() != null) {
+                String message = cause.getMessage().toLowerCase(Locale.ROOT);
+                if (INPUT_ERROR_KEYWORDS.stream().anyMatch(message::contains)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int resolveMaxBatchSize() {
+        try {
+            return Math.max(1, maxBatchSize.getAsInt());
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 等待合并的单个请求
+     */
+    private static final class PendingRequest {
+
+        private final List<String> texts;
+        private final EmbeddingOptions options;
+        private final CompletableFuture<EmbeddingResponse> future = new CompletableFuture<>();
+
+        private PendingRequest(List<String> texts, EmbeddingOptions options) {
+            this.texts = texts;
+            this.options = options;
+        }
+
+        /**
+         * PgVectorStore 每次都会 new 一个空选项，因此按模型和维度比较，而不是按引用
+         */
+        private boolean sameOptions(PendingRequest other) {
+            if (options == null || other.options == null) {
+                return options == other.options
+                        || isEmpty(options) && isEmpty(other.options);
+            }
+            return Objects.equals(options.getModel(), other.options.getModel())
+                    && Objects.equals(options.getDimensions(), other.options.getDimensions());
+        }
+
+        private static boolean isEmpty(EmbeddingOptions options) {
+            return options == null || (options.getModel() == null && options.getDimensions() == null);
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package com.xbk.xfg.dev.tech.domain.factory;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import com.xbk.xfg.dev.tech.domain.cache.LlmConfigCache;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RBucket;
-import org.redisson.api.RMap;
-import org.redisson.api.RedissonClient;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.ai.openai.OpenAiChatOptions;
@@ -16,9 +16,9 @@ import reactor.core.publisher.Flux;
 import com.xbk.xfg.dev.tech.domain.strategy.ChatClientStrategy;
 import com.xbk.xfg.dev.tech.domain.strategy.embedding.EmbeddingStrategy;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * 动态 ChatClient 工厂 - 大模型动态切换的核心实现
@@ -27,7 +27,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * 1. 根据 Redis 中存储的配置，动态创建不同提供商的 ChatClient
  * 2. 缓存已创建的客户端，避免重复创建，提高性能
  * 3. 支持运行时切换大模型，无需重启应用
- * 4. 使用读写锁保证线程安全
+ * 4. 激活配置以不可变快照发布，热路径只有一次 volatile 读
+ * 5. 订阅 {@link LlmConfigCache} 的变更通知，任何实例修改或激活配置后，所有实例同步清理客户端缓存
+ * 6. poolWeight > 0 的配置与激活的配置组成提供商池，负载均衡并故障转移（{@link ChatProviderPool}）
  *
  * <h2>支持的提供商</h2>
  * - OpenAI（官方或兼容服务，如 OneAPI、FastGPT）
@@ -40,7 +42,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * 3. 单例模式：每个配置只创建一个客户端实例并缓存
  *
  * <h2>数据存储</h2>
- * Redis 中存储两类数据：
+ * Redis 中存储两类数据（通过 {@link LlmConfigCache} 读取本地视图）：
  * - llm:provider:configs (Hash)：所有配置的详细信息，key 为配置 ID
  * - llm:provider:active (String)：当前激活的配置 ID
  *
@@ -50,36 +52,19 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 @Component
 public class DynamicChatClientFactory {
 
-    // ==================== Redis 键常量 ====================
-
-    /**
-     * Redis Hash 键：存储所有大模型配置
-     * 数据结构：Hash<配置ID, LlmProviderConfigDTO>
-     * 示例：llm:provider:configs = {
-     *   "uuid-1": { name: "OpenAI 官方", providerType: "OPENAI", ... },
-     *   "uuid-2": { name: "Ollama 本地", providerType: "OLLAMA", ... }
-     * }
-     */
-    private static final String CONFIG_HASH_KEY = "llm:provider:configs";
+    // ==================== 依赖注入 ====================
 
     /**
-     * Redis String 键：存储当前激活的配置 ID
-     * 数据结构：String
-     * 示例：llm:provider:active = "uuid-1"
+     * 配置本地缓存：读取配置和激活 ID 只访问内存，配置变更时回调本工厂
      */
-    private static final String ACTIVE_CONFIG_KEY = "llm:provider:active";
-
-    // ==================== 依赖注入 ====================
+    @Resource
+    private LlmConfigCache llmConfigCache;
 
     /**
-     * Redisson 客户端：用于访问 Redis
-     * 为什么选择 Redisson？
-     * 1. 提供丰富的数据结构操作（Map、Bucket 等）
-     * 2. 自动序列化/反序列化 Java 对象
-     * 3. 支持分布式锁、分布式缓存等高级功能
+     * 提供商池：快照中的客户端由它包装，激活配置之外还可以加入 poolWeight > 0 的配置
      */
     @Resource
-    private RedissonClient redissonClient;
+    private ChatProviderPool chatProviderPool;
 
     /**
      * 客户端创建策略列表
@@ -115,32 +100,39 @@ public class DynamicChatClientFactory {
     private final ConcurrentHashMap<String, ChatClientWrapper> clientCache = new ConcurrentHashMap<>();
 
     /**
-     * 读写锁
+     * 当前激活配置的不可变快照
      *
-     * <b>为什么需要锁？</b>
-     * 虽然 ConcurrentHashMap 已经是线程安全的，但以下场景需要额外保护：
-     * 1. 切换激活配置时（写操作）需要保证原子性
-     * 2. 读取激活配置 + 获取客户端这两步需要一起保护
+     * <b>为什么用快照？</b>
+     * 原实现每次对话都要加读锁，getActiveProviderType / getActiveDefaultModel 还要各读一次 Redis，
+     * 而 AiDomainService 每个请求会调用其中两个。
+     * 现在把 配置 + 客户端 + 提供商类型 + 默认模型 打包成一个不可变对象，通过一个 volatile 引用发布：
+     * - 读：一次 volatile 读，不加锁，不访问 Redis
+     * - 写：激活 / 修改配置时先构建好新快照，再整体替换引用，读方要么看到旧快照要么看到新快照，不会看到一半
      *
-     * <b>为什么选择读写锁？</b>
-     * - 读操作（getActiveChatClient）频率高，允许并发
-     * - 写操作（onConfigActivated）频率低，独占
-     * - 读写锁可以提高并发性能
+     * <b>为什么使用 volatile？</b>
+     * 1. 保证多线程之间的可见性
+     * 2. 当配置切换时，其他线程能立即看到新值
+     * 3. 快照对象不可变，引用替换即原子切换
      */
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private volatile ActiveChatClient activeSnapshot;
 
     /**
-     * 当前激活的配置 ID（内存缓存）
-     *
-     * <b>为什么需要这个字段？</b>
-     * 避免每次都从 Redis 读取激活的配置 ID，减少网络开销
+     * 激活配置快照
      *
-     * <b>为什么使用 volatile？</b>
-     * 1. 保证多线程之间的可见性
-     * 2. 当配置切换时，其他线程能立即看到新值
-     * 3. 防止指令重排序
+     * @param configId     配置 ID
+     * @param config       配置详情
+     * @param client       池化客户端（负载均衡、故障转移、对冲），只有激活配置时池中只有一个成员
+     * @param providerType 提供商类型
+     * @param defaultModel 默认模型
      */
-    private volatile String activeConfigId;
+    public record ActiveChatClient(String configId, LlmProviderConfigDTO config, ChatClientWrapper client,
+                                   String providerType, String defaultModel) {
+    }
+
+    @PostConstruct
+    public void init() {
+        llmConfigCache.addListener(this::onConfigChanged);
+    }
 
     // ==================== 客户端包装器接口 ====================
 
@@ -180,44 +172,31 @@ public class DynamicChatClientFactory {
      * 获取当前激活的 ChatClient - 最常用的方法
      *
      * <b>执行流程</b>
-     * 1. 加读锁（允许多个线程同时读取）
-     * 2. 从 Redis 获取激活的配置 ID
-     * 3. 从缓存中获取客户端（如果不存在则创建）
-     * 4. 释放读锁
-     * 5. 返回客户端包装器
-     *
-     * <b>缓存策略</b>
-     * 使用 computeIfAbsent 原子性地完成"检查-创建-存储"三个步骤
+     * 1. 读取 volatile 快照（不加锁、不访问 Redis）
+     * 2. 快照不存在时（首次调用、配置被修改后）从配置缓存加载并发布新快照
      *
      * @return ChatClient 包装器
      * @throws IllegalStateException 如果没有激活的配置
      */
     public ChatClientWrapper getActiveChatClient() {
-        // 加读锁：允许多个线程同时调用这个方法
-        rwLock.readLock().lock();
-        try {
-            // 步骤1: 获取激活的配置 ID
-            String configId = getActiveConfigId();
-            if (configId == null) {
-                throw new IllegalStateException("没有激活的模型配置，请先在模型配置页面添加并激活一个配置");
-            }
+        ActiveChatClient active = getActiveSnapshot();
+        if (active == null) {
+            throw new IllegalStateException("没有激活的模型配置，请先在模型配置页面添加并激活一个配置");
+        }
+        return active.client();
+    }
 
-            // 步骤2: 从缓存获取或创建客户端
-            // computeIfAbsent 的好处：原子性地完成"检查是否存在 -> 不存在则创建"
-            return clientCache.computeIfAbsent(configId, id -> {
-                // 从 Redis 读取配置详情
-                LlmProviderConfigDTO config = getConfigById(id);
-                if (config == null) {
-                    throw new IllegalStateException("找不到配置: " + id);
-                }
-                log.info("创建新的 ChatClient: {} - {}", config.getName(), config.getProviderType());
-                // 根据配置创建客户端
-                return createChatClient(config);
-            });
-        } finally {
-            // 确保锁一定会被释放
-            rwLock.readLock().unlock();
+    /**
+     * 获取当前激活配置的快照，同一个请求内需要同时使用客户端、提供商类型、默认模型时用它保证一致
+     *
+     * @return 激活配置快照，如果没有激活的配置则返回 null
+     */
+    public ActiveChatClient getActiveSnapshot() {
+        ActiveChatClient active = activeSnapshot;
+        if (active != null) {
+            return active;
         }
+        return loadActiveSnapshot();
     }
 
     // ==================== 配置切换方法 ====================
@@ -226,39 +205,25 @@ public class DynamicChatClientFactory {
      * 激活新配置 - 大模型切换的核心方法
      *
      * <b>执行流程</b>
-     * 1. 加写锁（独占，阻止其他线程读写）
-     * 2. 更新内存中的激活配置 ID
-     * 3. 预热：如果新配置的客户端不在缓存中，提前创建
-     * 4. 释放写锁
+     * 1. 读取新配置并创建（或复用）客户端
+     * 2. 构建新快照，整体替换 volatile 引用
      *
-     * <b>为什么需要预热？</b>
-     * 避免切换后第一次调用时等待客户端创建，提升用户体验
+     * 切换期间正在进行的请求继续使用旧快照，新请求立即使用新快照
      *
      * <b>调用时机</b>
-     * 用户在前端点击"激活"按钮时，Controller 调用此方法
+     * 任何实例激活配置后，{@link LlmConfigCache} 通知本工厂（{@link #onConfigChanged}）
      *
      * @param newConfigId 新激活的配置 ID
      */
-    public void onConfigActivated(String newConfigId) {
-        // 加写锁：独占访问，阻止其他线程读写
-        rwLock.writeLock().lock();
-        try {
-            // 步骤1: 更新内存中的激活配置 ID（volatile 保证可见性）
-            this.activeConfigId = newConfigId;
-
-            // 步骤2: 预热新配置的客户端
-            if (!clientCache.containsKey(newConfigId)) {
-                LlmProviderConfigDTO config = getConfigById(newConfigId);
-                if (config != null) {
-                    // 提前创建客户端并放入缓存
-                    clientCache.put(newConfigId, createChatClient(config));
-                    log.info("预热 ChatClient 缓存: {}", config.getName());
-                }
-            }
-        } finally {
-            // 确保锁一定会被释放
-            rwLock.writeLock().unlock();
+    public synchronized void onConfigActivated(String newConfigId) {
+        LlmProviderConfigDTO config = getConfigById(newConfigId);
+        if (config == null) {
+            log.warn("激活的配置不存在: {}", newConfigId);
+            activeSnapshot = null;
+            return;
         }
+        activeSnapshot = buildSnapshot(newConfigId, config);
+        log.info("切换 ChatClient: {} - {}", config.getName(), config.getProviderType());
     }
 
     /**
@@ -267,24 +232,44 @@ public class DynamicChatClientFactory {
      * <b>使用场景</b>
      * 1. 用户修改了配置（如更换 API Key）
      * 2. 用户删除了配置
+     * 两者都由 {@link LlmConfigCache} 的变更通知触发，其他实例上的修改同样生效
      *
      * <b>为什么需要清除缓存？</b>
      * 确保下次使用时会用新的配置重新创建客户端
      *
      * @param configId 要清除的配置 ID
      */
-    public void invalidateCache(String configId) {
+    public synchronized void invalidateCache(String configId) {
         // 从缓存中移除
         clientCache.remove(configId);
 
-        // 如果清除的是当前激活的配置，重置激活 ID
-        if (configId.equals(activeConfigId)) {
-            activeConfigId = null;
+        // 如果清除的是当前激活的配置，丢弃快照，下次使用时重新加载
+        ActiveChatClient active = activeSnapshot;
+        if (active != null && configId.equals(active.configId())) {
+            activeSnapshot = null;
         }
 
         log.info("清除 ChatClient 缓存: {}", configId);
     }
 
+    /**
+     * 配置变更回调：先清理被修改的配置，再切换激活配置
+     */
+    private synchronized void onConfigChanged(LlmConfigCache.Change change) {
+        change.changedConfigIds().forEach(this::invalidateCache);
+        if (change.activeChatChanged()) {
+            String activeId = llmConfigCache.getActiveChatId();
+            if (activeId != null) {
+                onConfigActivated(activeId);
+            } else {
+                activeSnapshot = null;
+            }
+        } else if (!change.changedConfigIds().isEmpty()) {
+            // 池成员可能变化（加入、移出、修改权重），丢弃快照，下次使用时重建；未修改的客户端仍从缓存复用
+            activeSnapshot = null;
+        }
+    }
+
     // ==================== 测试连接方法 ====================
 
     /**
@@ -462,17 +447,8 @@ public class DynamicChatClientFactory {
      * @return 提供商类型（OPENAI、OLLAMA、ANTHROPIC）
      */
     public String getActiveProviderType() {
-        rwLock.readLock().lock();
-        try {
-            String configId = getActiveConfigId();
-            if (configId == null) {
-                return null;
-            }
-            LlmProviderConfigDTO config = getConfigById(configId);
-            return config != null ? config.getProviderType() : null;
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        ActiveChatClient active = getActiveSnapshot();
+        return active != null ? active.providerType() : null;
     }
 
     /**
@@ -481,17 +457,21 @@ public class DynamicChatClientFactory {
      * @return 默认模型名称，如果没有配置则返回 null
      */
     public String getActiveDefaultModel() {
-        rwLock.readLock().lock();
-        try {
-            String configId = getActiveConfigId();
-            if (configId == null) {
-                return null;
-            }
-            LlmProviderConfigDTO config = getConfigById(configId);
-            return config != null ? config.getDefaultModel() : null;
-        } finally {
-            rwLock.readLock().unlock();
+        ActiveChatClient active = getActiveSnapshot();
+        return active != null ? active.defaultModel() : null;
+    }
+
+    /**
+     * 根据提供商类型创建对话选项
+     *
+     * @param providerType 提供商类型
+     * @param model        模型名称
+     */
+    public static ChatOptions createOptions(String providerType, String model) {
+        if ("OLLAMA".equalsIgnoreCase(providerType)) {
+            return OllamaOptions.builder().model(model).build();
         }
+        return OpenAiChatOptions.builder().model(model).build();
     }
 
     // ==================== 私有方法：客户端创建 ====================
@@ -504,28 +484,74 @@ public class DynamicChatClientFactory {
                 .createClient(config);
     }
 
-    // ==================== 私有方法：Redis 数据访问 ====================
+    // ==================== 私有方法：配置读取 ====================
 
     /**
-     * 获取当前激活的配置 ID
+     * 加载激活配置并发布快照（慢路径）
+     * 加锁避免多个线程同时创建客户端；拿到锁后再检查一次，其他线程可能已经发布
      *
-     * <b>缓存策略</b>
-     * 1. 先检查内存缓存（activeConfigId 字段）
-     * 2. 如果内存中没有，从 Redis 读取
-     * 3. 读取后更新内存缓存
-     *
-     * @return 激活的配置 ID，如果没有则返回 null
+     * @return 激活配置快照，如果没有激活的配置则返回 null
      */
-    private String getActiveConfigId() {
-        // 先从内存缓存读取
-        if (activeConfigId != null) {
-            return activeConfigId;
+    private synchronized ActiveChatClient loadActiveSnapshot() {
+        ActiveChatClient active = activeSnapshot;
+        if (active != null) {
+            return active;
         }
 
-        // 从 Redis 读取
-        RBucket<String> activeBucket = redissonClient.getBucket(ACTIVE_CONFIG_KEY);
-        activeConfigId = activeBucket.get();
-        return activeConfigId;
+        String configId = llmConfigCache.getActiveChatId();
+        if (configId == null) {
+            return null;
+        }
+        LlmProviderConfigDTO config = getConfigById(configId);
+        if (config == null) {
+            log.warn("找不到激活的配置: {}", configId);
+            return null;
+        }
+        active = buildSnapshot(configId, config);
+        activeSnapshot = active;
+        return active;
+    }
+
+    /**
+     * 构建快照：客户端按配置 ID 缓存复用
+     * 激活的配置排在池的第一位，其余成员为 poolWeight > 0 且具备对话能力的配置
+     */
+    private ActiveChatClient buildSnapshot(String configId, LlmProviderConfigDTO config) {
+        List<ChatProviderPool.Member> members = new ArrayList<>();
+        int activeWeight = config.getPoolWeight() != null && config.getPoolWeight() > 0 ? config.getPoolWeight() : 1;
+        members.add(new ChatProviderPool.Member(configId, config, getOrCreateClient(configId, config), activeWeight));
+
+        for (LlmProviderConfigDTO other : llmConfigCache.getAllConfigs()) {
+            if (other.getId().equals(configId) || other.getPoolWeight() == null || other.getPoolWeight() <= 0
+                    || !hasChatCapability(other)) {
+                continue;
+            }
+            try {
+                members.add(new ChatProviderPool.Member(other.getId(), other,
+                        getOrCreateClient(other.getId(), other), other.getPoolWeight()));
+            } catch (Exception e) {
+                log.warn("提供商池成员 {} 创建客户端失败，跳过: {}", other.getName(), e.getMessage());
+            }
+        }
+        if (members.size() > 1) {
+            log.info("对话提供商池: {}", members.stream()
+                    .map(member -> member.config().getName() + "×" + member.weight()).toList());
+        }
+
+        ChatClientWrapper client = chatProviderPool.wrap(members);
+        return new ActiveChatClient(configId, config, client, config.getProviderType(), config.getDefaultModel());
+    }
+
+    private ChatClientWrapper getOrCreateClient(String configId, LlmProviderConfigDTO config) {
+        return clientCache.computeIfAbsent(configId, id -> {
+            log.info("创建新的 ChatClient: {} - {}", config.getName(), config.getProviderType());
+            return createChatClient(config);
+        });
+    }
+
+    private static boolean hasChatCapability(LlmProviderConfigDTO config) {
+        return (config.getModels() != null && !config.getModels().isEmpty())
+                || (config.getDefaultModel() != null && !config.getDefaultModel().isEmpty());
     }
 
     /**
@@ -535,8 +561,6 @@ public class DynamicChatClientFactory {
      * @return 配置对象，如果不存在则返回 null
      */
     private LlmProviderConfigDTO getConfigById(String id) {
-        // 从 Redis Hash 中获取
-        RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-        return configMap.get(id);
+        return llmConfigCache.getConfig(id);
     }
 }
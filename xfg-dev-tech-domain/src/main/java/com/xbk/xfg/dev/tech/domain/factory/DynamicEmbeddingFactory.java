@@ -2,13 +2,13 @@ package com.xbk.xfg.dev.tech.domain.factory;
 
 import com.xbk.xfg.dev.tech.api.dto.EmbeddingActivationResultDTO;
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import com.xbk.xfg.dev.tech.domain.cache.LlmConfigCache;
 import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
 import com.xbk.xfg.dev.tech.domain.strategy.embedding.EmbeddingStrategy;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RBucket;
 import org.redisson.api.RList;
-import org.redisson.api.RMap;
 import org.redisson.api.RedissonClient;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.stereotype.Component;
@@ -26,27 +26,61 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 @Component
 public class DynamicEmbeddingFactory {
 
-    private static final String CONFIG_HASH_KEY = "llm:provider:configs";
-    private static final String ACTIVE_EMBEDDING_KEY = "llm:provider:active:embedding";
     private static final String RAG_TAG_KEY = "ragTag";
 
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private LlmConfigCache llmConfigCache;
+
     @Resource
     private List<EmbeddingStrategy> strategies;
 
+    @Resource
+    private ProviderGuard providerGuard;
+
     @Resource
     private VectorStoreRepository vectorStoreRepository;
 
-    private volatile EmbeddingModel cachedEmbeddingModel;
-    private volatile String activeConfigId;
+    /**
+     * 当前激活的 Embedding 快照（配置 ID、模型、批量上限、缓存作用域）
+     * 作为一个整体替换，保证读取方拿到的模型和缓存作用域一定来自同一个配置
+     */
+    private volatile ActiveEmbedding cachedActiveEmbedding;
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     /**
-     * 获取当前激活的 EmbeddingModel
+     * 激活的 Embedding 快照
+     *
+     * @param configId     配置 ID
+     * @param model        EmbeddingModel 实例（经 ProviderGuard 熔断与并发保护）
+     * @param maxBatchSize 单次批量向量化的最大文本数
+     * @param cacheScope   向量缓存作用域：配置 ID + 模型 + 维度，切换配置后自动落到新的作用域
      */
-    public EmbeddingModel getActiveEmbeddingModel() {
+    public record ActiveEmbedding(String configId, EmbeddingModel model, int maxBatchSize, String cacheScope) {
+    }
+
+    @PostConstruct
+    public void init() {
+        // 任何实例修改配置或切换激活的 Embedding 配置后，丢弃本实例的模型，下一次使用时重新创建
+        llmConfigCache.addListener(change -> {
+            change.changedConfigIds().forEach(this::invalidateCache);
+            if (change.activeEmbeddingChanged()) {
+                rwLock.writeLock().lock();
+                try {
+                    cachedActiveEmbedding = null;
+                } finally {
+                    rwLock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取当前激活的 Embedding 快照
+     */
+    public ActiveEmbedding getActiveEmbedding() {
         rwLock.readLock().lock();
         try {
             String configId = getActiveEmbeddingConfigId();
@@ -54,8 +88,9 @@ public class DynamicEmbeddingFactory {
                 throw new IllegalStateException("没有激活的 Embedding 配置");
             }
 
-            if (configId.equals(activeConfigId) && cachedEmbeddingModel != null) {
-                return cachedEmbeddingModel;
+            ActiveEmbedding cached = cachedActiveEmbedding;
+            if (cached != null && configId.equals(cached.configId())) {
+                return cached;
             }
 
             LlmProviderConfigDTO config = getConfigById(configId);
@@ -63,15 +98,34 @@ public class DynamicEmbeddingFactory {
                 throw new IllegalStateException("激活的 Embedding 配置不存在: " + configId);
             }
 
-            cachedEmbeddingModel = createEmbeddingModel(config);
-            activeConfigId = configId;
+            EmbeddingStrategy strategy = getStrategy(config);
+            ActiveEmbedding created = new ActiveEmbedding(
+                    configId,
+                    new GuardedEmbeddingModel(strategy.createEmbeddingModel(config), providerGuard, configId, config.getName()),
+                    strategy.maxBatchSize(),
+                    configId + ":" + config.getEmbeddingModel() + ":" + config.getEmbeddingDimension());
+            cachedActiveEmbedding = created;
             log.info("创建新的 EmbeddingModel: {} - {}", config.getName(), config.getEmbeddingModel());
-            return cachedEmbeddingModel;
+            return created;
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
+    /**
+     * 获取当前激活的 EmbeddingModel
+     */
+    public EmbeddingModel getActiveEmbeddingModel() {
+        return getActiveEmbedding().model();
+    }
+
+    /**
+     * 当前激活提供商单次批量向量化的最大文本数
+     */
+    public int getActiveMaxBatchSize() {
+        return getActiveEmbedding().maxBatchSize();
+    }
+
     /**
      * 激活新的 Embedding 配置
      */
@@ -105,9 +159,8 @@ public class DynamicEmbeddingFactory {
                 clearAllKnowledge(newConfig.getEmbeddingDimension());
             }
 
-            setActiveEmbeddingConfigId(configId);
-            cachedEmbeddingModel = null;
-            activeConfigId = null;
+            cachedActiveEmbedding = null;
+            llmConfigCache.setActiveEmbeddingId(configId);
 
             return EmbeddingActivationResultDTO.builder()
                     .success(true)
@@ -141,9 +194,9 @@ public class DynamicEmbeddingFactory {
     public void invalidateCache(String configId) {
         rwLock.writeLock().lock();
         try {
-            if (configId != null && configId.equals(activeConfigId)) {
-                cachedEmbeddingModel = null;
-                activeConfigId = null;
+            ActiveEmbedding cached = cachedActiveEmbedding;
+            if (configId != null && cached != null && configId.equals(cached.configId())) {
+                cachedActiveEmbedding = null;
             }
         } finally {
             rwLock.writeLock().unlock();
@@ -159,12 +212,11 @@ public class DynamicEmbeddingFactory {
         }
     }
 
-    private EmbeddingModel createEmbeddingModel(LlmProviderConfigDTO config) {
+    private EmbeddingStrategy getStrategy(LlmProviderConfigDTO config) {
         return strategies.stream()
                 .filter(s -> s.supports(config.getProviderType()))
                 .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("不支持的提供商类型: " + config.getProviderType()))
-                .createEmbeddingModel(config);
+                .orElseThrow(() -> new IllegalArgumentException("不支持的提供商类型: " + config.getProviderType()));
     }
 
     private void clearAllKnowledge(int newDimension) {
@@ -185,23 +237,11 @@ public class DynamicEmbeddingFactory {
     }
 
     private String getActiveEmbeddingConfigId() {
-        if (activeConfigId != null) {
-            return activeConfigId;
-        }
-        RBucket<String> bucket = redissonClient.getBucket(ACTIVE_EMBEDDING_KEY);
-        activeConfigId = bucket.get();
-        return activeConfigId;
-    }
-
-    private void setActiveEmbeddingConfigId(String configId) {
-        RBucket<String> bucket = redissonClient.getBucket(ACTIVE_EMBEDDING_KEY);
-        bucket.set(configId);
-        activeConfigId = configId;
+        return llmConfigCache.getActiveEmbeddingId();
     }
 
     private LlmProviderConfigDTO getConfigById(String id) {
-        RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-        return configMap.get(id);
+        return llmConfigCache.getConfig(id);
     }
 
     private long getKnowledgeCount() {
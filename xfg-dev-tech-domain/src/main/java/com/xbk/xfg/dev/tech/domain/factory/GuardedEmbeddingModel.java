@@ -0,0 +1,60 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.function.Supplier;
+
+/**
+ * 受 {@link ProviderGuard} 保护的 EmbeddingModel：熔断打开时快速失败，并发已满时排队等待许可
+ * （导入是批量调用，上限临时收缩时等待比直接让整批文件失败更合理）
+ */
+public class GuardedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final ProviderGuard guard;
+
+    private final String configId;
+
+    private final String provider;
+
+    public GuardedEmbeddingModel(EmbeddingModel delegate, ProviderGuard guard, String configId, String provider) {
+        this.delegate = delegate;
+        this.guard = guard;
+        this.configId = configId;
+        this.provider = provider;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return guarded(() -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return guarded(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private <T> T guarded(Supplier<T> invocation) {
+        ProviderGuard.Permit permit = guard.acquire(ProviderGuard.EMBEDDING, configId, provider,
+                guard.getEmbeddingWaitMillis());
+        try {
+            T result = invocation.get();
+            permit.success();
+            return result;
+        } catch (RuntimeException e) {
+            permit.failure(e);
+            throw e;
+        } finally {
+            permit.release();
+        }
+    }
+}
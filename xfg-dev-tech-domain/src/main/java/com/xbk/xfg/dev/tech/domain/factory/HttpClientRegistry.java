@@ -0,0 +1,167 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大模型 HTTP 客户端注册表：按服务地址（scheme + host + port）共享连接池
+ *
+ * <h2>为什么需要？</h2>
+ * 原实现每个策略创建 OpenAiApi / AnthropicApi / OllamaApi 时都使用默认的 RestClient、WebClient，
+ * 每个客户端（包括测试连接时的临时客户端）各自一套连接，没有复用策略、keep-alive 调优和 HTTP/2，
+ * 切换配置或测试连接都要重新 TLS 握手，高并发时连接数也没有约束。
+ *
+ * <h2>做法</h2>
+ * 同一服务地址的所有配置、对话和 Embedding、同步和流式调用共用一个 JDK HttpClient：
+ * - https 地址使用 HTTP/2（ALPN 协商，服务端不支持时自动回退 HTTP/1.1），并发请求复用同一条连接
+ * - http 地址（如本地 Ollama）固定 HTTP/1.1，避免 h2c 升级请求
+ * - 同步调用（RestClient）有读超时；流式调用（WebClient）不设读超时，首 Token 过慢由对冲和熔断处理
+ *
+ * <h2>连接数</h2>
+ * JDK HttpClient 的空闲连接池大小和 keep-alive 是 JVM 级系统属性（jdk.httpclient.connectionPoolSize、
+ * jdk.httpclient.keepalive.timeout），在创建第一个客户端前设置；启动参数已指定时以启动参数为准。
+ * 在途请求数由 {@link ProviderGuard} 的并发上限约束。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class HttpClientRegistry {
+
+    @Value("${llm.http.http2:true}")
+    private boolean http2;
+
+    @Value("${llm.http.connect-timeout-millis:5000}")
+    private long connectTimeoutMillis;
+
+    /**
+     * 同步调用的读超时（非流式对话、Embedding）
+     */
+    @Value("${llm.http.read-timeout-millis:120000}")
+    private long readTimeoutMillis;
+
+    /**
+     * 空闲连接保留时长（秒）
+     */
+    @Value("${llm.http.keep-alive-seconds:300}")
+    private int keepAliveSeconds;
+
+    /**
+     * 每个 JVM 最多保留的空闲连接数（HTTP/1.1），0 表示不限制
+     */
+    @Value("${llm.http.pool-size:50}")
+    private int poolSize;
+
+    /**
+     * 服务地址 → 客户端
+     */
+    private final Map<String, Entry> clients = new ConcurrentHashMap<>();
+
+    /**
+     * 所有客户端共用的线程池，替代每个 HttpClient 默认各自创建的线程池
+     */
+    private ExecutorService executor;
+
+    private record Entry(JdkClientHttpRequestFactory requestFactory, JdkClientHttpConnector connector) {
+    }
+
+    @PostConstruct
+    public void init() {
+        setIfAbsent("jdk.httpclient.connectionPoolSize", poolSize);
+        setIfAbsent("jdk.httpclient.keepalive.timeout", keepAliveSeconds);
+        setIfAbsent("jdk.httpclient.keepalive.timeout.h2", keepAliveSeconds);
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "llm-http-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("大模型 HTTP 客户端: HTTP/2={}, 连接超时 {} ms, 读超时 {} ms, keep-alive {} 秒, 空闲连接上限 {}",
+                http2, connectTimeoutMillis, readTimeoutMillis,
+                System.getProperty("jdk.httpclient.keepalive.timeout"),
+                System.getProperty("jdk.httpclient.connectionPoolSize"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        clients.clear();
+        executor.shutdown();
+    }
+
+    /**
+     * 同步调用使用的 RestClient.Builder（每次返回新的 Builder，底层连接共享）
+     */
+    public RestClient.Builder restClientBuilder(String baseUrl) {
+        return RestClient.builder().requestFactory(entryOf(baseUrl).requestFactory());
+    }
+
+    /**
+     * 流式调用使用的 WebClient.Builder（每次返回新的 Builder，底层连接共享）
+     */
+    public WebClient.Builder webClientBuilder(String baseUrl) {
+        return WebClient.builder().clientConnector(entryOf(baseUrl).connector());
+    }
+
+    private Entry entryOf(String baseUrl) {
+        return clients.computeIfAbsent(originOf(baseUrl), this::createEntry);
+    }
+
+    private Entry createEntry(String origin) {
+        boolean useHttp2 = http2 && origin.startsWith("https://");
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(useHttp2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient, executor);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMillis));
+        log.info("创建 HTTP 客户端: {} ({})", origin, useHttp2 ? "HTTP/2" : "HTTP/1.1");
+        return new Entry(requestFactory, new JdkClientHttpConnector(httpClient));
+    }
+
+    /**
+     * 服务地址：scheme://host:port，路径不同的配置（如 /v1、/openai/v1）共用连接
+     */
+    private static String originOf(String baseUrl) {
+        if (!StringUtils.hasText(baseUrl)) {
+            throw new IllegalArgumentException("服务地址不能为空");
+        }
+        URI uri;
+        try {
+            uri = URI.create(baseUrl.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("服务地址格式错误: " + baseUrl, e);
+        }
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            throw new IllegalArgumentException("服务地址格式错误: " + baseUrl);
+        }
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort() != -1 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+        return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    private static void setIfAbsent(String key, int value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, String.valueOf(value));
+        }
+    }
+}
@@ -1,28 +1,99 @@
 package com.xbk.xfg.dev.tech.domain.factory;
 
+import com.xbk.xfg.dev.tech.domain.cache.EmbeddingCache;
+import com.xbk.xfg.dev.tech.domain.factory.DynamicEmbeddingFactory.ActiveEmbedding;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
 import org.springframework.ai.embedding.EmbeddingRequest;
 import org.springframework.ai.embedding.EmbeddingResponse;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 延迟获取的 EmbeddingModel，用于支持运行时切换
+ * 调用前先查询向量缓存，只把未命中的文本发给当前激活的模型
  */
 public class LazyEmbeddingModel implements EmbeddingModel {
 
     private final DynamicEmbeddingFactory factory;
 
+    private final EmbeddingCache embeddingCache;
+
     public LazyEmbeddingModel(DynamicEmbeddingFactory factory) {
+        this(factory, null);
+    }
+
+    public LazyEmbeddingModel(DynamicEmbeddingFactory factory, EmbeddingCache embeddingCache) {
         this.factory = factory;
+        this.embeddingCache = embeddingCache;
     }
 
     @Override
     public EmbeddingResponse call(EmbeddingRequest request) {
-        return factory.getActiveEmbeddingModel().call(request);
+        ActiveEmbedding active = factory.getActiveEmbedding();
+        if (!cacheable(request)) {
+            return active.model().call(request);
+        }
+
+        List<String> texts = request.getInstructions();
+        List<String> keys = embeddingCache.keysOf(active.cacheScope(), texts);
+        Map<String, float[]> vectors = new HashMap<>(embeddingCache.getAll(keys));
+
+        // 收集未命中的文本（同一批次内的重复文本只算一次）
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!vectors.containsKey(keys.get(i))) {
+                missing.putIfAbsent(keys.get(i), texts.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<String> missingKeys = new ArrayList<>(missing.keySet());
+            EmbeddingResponse response = active.model()
+                    .call(new EmbeddingRequest(new ArrayList<>(missing.values()), request.getOptions()));
+            List<Embedding> results = response.getResults();
+
+            Map<String, float[]> computed = new HashMap<>();
+            for (int i = 0; i < results.size() && i < missingKeys.size(); i++) {
+                computed.put(missingKeys.get(i), results.get(i).getOutput());
+            }
+            embeddingCache.putAll(computed);
+            vectors.putAll(computed);
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < keys.size(); i++) {
+            float[] vector = vectors.get(keys.get(i));
+            if (vector == null) {
+                throw new IllegalStateException("Embedding 返回数量不匹配，缺少第 " + i + " 条文本的向量");
+            }
+            embeddings.add(new Embedding(vector, i));
+        }
+        return new EmbeddingResponse(embeddings);
     }
 
     @Override
     public float[] embed(Document document) {
         return factory.getActiveEmbeddingModel().embed(document);
     }
+
+    /**
+     * 请求显式指定了其他模型或维度时，缓存作用域无法对应，直接透传
+     */
+    private boolean cacheable(EmbeddingRequest request) {
+        if (embeddingCache == null || !embeddingCache.isEnabled()) {
+            return false;
+        }
+        if (request.getInstructions() == null || request.getInstructions().isEmpty()) {
+            return false;
+        }
+        EmbeddingOptions options = request.getOptions();
+        return options == null || (options.getModel() == null && options.getDimensions() == null);
+    }
 }
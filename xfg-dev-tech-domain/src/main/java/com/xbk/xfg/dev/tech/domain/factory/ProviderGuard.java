@@ -0,0 +1,414 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+import com.xbk.xfg.dev.tech.domain.cache.LlmConfigCache;
+import com.xbk.xfg.dev.tech.domain.factory.ProviderUnavailableException.Reason;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 提供商保护：每个配置一个熔断器 + 自适应并发上限（对话、Embedding 分别统计）
+ *
+ * <h2>为什么需要？</h2>
+ * 提供商开始超时后，请求在上游堆积，线程被阻塞，整个节点一起变慢。
+ * 熔断和并发上限让请求在本地快速失败，而不是排队等待超时。
+ *
+ * <h2>熔断器</h2>
+ * 最近 window-size 次调用中失败率达到 failure-rate-threshold（且至少 min-calls 次）时打开，
+ * open-seconds 秒内直接拒绝；之后半开，放行 half-open-permits 个试探请求，成功则关闭，失败则重新打开。
+ *
+ * <h2>自适应并发上限（AIMD）</h2>
+ * - 成功且不慢：在途请求达到上限一半以上时上限 +1（加性增）
+ * - 失败或慢（对话首 Token / Embedding 耗时超过 slow-call-millis）：上限 × backoff-ratio（乘性减）
+ * 在途请求达到上限时对话直接拒绝；Embedding 是导入批量调用，排队等待许可（最多 embedding-wait-millis），
+ * 避免上限收缩时整批文件直接失败。上游变慢时上限自动收缩，恢复后逐步放开。
+ * Embedding 上限不低于 embedding-min-limit（默认等于请求合并的 max-concurrent-batches），
+ * 合并器同时发出的批量请求不会因上限收缩被持续拒绝。
+ *
+ * <h2>状态</h2>
+ * {@link #snapshot()} 由 /actuator/providers 暴露；拒绝次数记录在 llm.provider.rejected{kind,reason}。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class ProviderGuard {
+
+    public static final String CHAT = "chat";
+
+    public static final String EMBEDDING = "embedding";
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Value("${llm.guard.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.guard.circuit.window-size:20}")
+    private int windowSize;
+
+    @Value("${llm.guard.circuit.min-calls:10}")
+    private int minCalls;
+
+    @Value("${llm.guard.circuit.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+
+    @Value("${llm.guard.circuit.open-seconds:30}")
+    private long openSeconds;
+
+    @Value("${llm.guard.circuit.half-open-permits:2}")
+    private int halfOpenPermits;
+
+    @Value("${llm.guard.limiter.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${llm.guard.limiter.min-limit:2}")
+    private int minLimit;
+
+    /**
+     * Embedding 并发上限下限，默认与请求合并的同时在途批量数一致
+     */
+    @Value("${llm.guard.limiter.embedding-min-limit:${rag.embedding.coalesce.max-concurrent-batches:4}}")
+    private int embeddingMinLimit;
+
+    /**
+     * Embedding 并发已满时等待许可的最长时间
+     */
+    @Value("${llm.guard.limiter.embedding-wait-millis:30000}")
+    private long embeddingWaitMillis;
+
+    @Value("${llm.guard.limiter.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${llm.guard.limiter.backoff-ratio:0.7}")
+    private double backoffRatio;
+
+    /**
+     * 对话的慢调用阈值（首 Token 耗时）
+     */
+    @Value("${llm.guard.limiter.chat-slow-call-millis:20000}")
+    private long chatSlowCallMillis;
+
+    /**
+     * Embedding 的慢调用阈值
+     */
+    @Value("${llm.guard.limiter.embedding-slow-call-millis:10000}")
+    private long embeddingSlowCallMillis;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private LlmConfigCache llmConfigCache;
+
+    /**
+     * kind:configId → 保护状态
+     */
+    private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+
+    /**
+     * 保护状态快照
+     *
+     * @param kind         chat / embedding
+     * @param configId     配置 ID
+     * @param provider     配置名称
+     * @param state        熔断器状态
+     * @param failureRate  窗口内失败率
+     * @param windowCalls  窗口内调用次数
+     * @param limit        当前并发上限
+     * @param inFlight     在途请求数
+     * @param rejected     累计拒绝次数
+     */
+    public record GuardSnapshot(String kind, String configId, String provider, State state, double failureRate,
+                                int windowCalls, int limit, int inFlight, long rejected) {
+    }
+
+    @PostConstruct
+    public void init() {
+        // 配置被修改（例如更换地址或 API Key）后重新统计
+        llmConfigCache.addListener(change -> change.changedConfigIds().forEach(this::reset));
+    }
+
+    /**
+     * 申请一次调用，熔断打开或并发已满时抛出 {@link ProviderUnavailableException}
+     * 调用结束后必须 {@link Permit#release()}
+     */
+    public Permit acquire(String kind, String configId, String provider) {
+        return acquire(kind, configId, provider, 0);
+    }
+
+    /**
+     * 申请一次调用，并发已满时最多等待 waitMillis 毫秒；熔断打开时仍然立即拒绝
+     * 调用结束后必须 {@link Permit#release()}
+     */
+    public Permit acquire(String kind, String configId, String provider, long waitMillis) {
+        Guard guard = guardOf(kind, configId, provider);
+        if (!enabled) {
+            synchronized (guard) {
+                guard.inFlight++;
+            }
+            return new Permit(guard, false);
+        }
+        boolean probe;
+        long deadline = System.nanoTime() + waitMillis * 1_000_000;
+        synchronized (guard) {
+            while (true) {
+                // 每次被唤醒都重新检查熔断器，等待期间打开的熔断器同样立即拒绝
+                long now = System.currentTimeMillis();
+                if (guard.state == State.OPEN) {
+                    if (now - guard.openedAt < openSeconds * 1000) {
+                        throw reject(guard, Reason.CIRCUIT_OPEN, "模型服务 " + provider + " 暂时不可用（熔断中），请稍后再试");
+                    }
+                    guard.state = State.HALF_OPEN;
+                    guard.halfOpenInFlight = 0;
+                    log.info("熔断器半开，放行试探请求: {} {}", kind, provider);
+                }
+                if (guard.state == State.HALF_OPEN && guard.halfOpenInFlight >= halfOpenPermits) {
+                    throw reject(guard, Reason.CIRCUIT_OPEN, "模型服务 " + provider + " 暂时不可用（熔断中），请稍后再试");
+                }
+                if (guard.inFlight < (int) guard.limit) {
+                    break;
+                }
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    throw reject(guard, Reason.CONCURRENCY_LIMIT, "模型服务 " + provider + " 繁忙（并发已达上限 " + (int) guard.limit + "），请稍后再试");
+                }
+                try {
+                    guard.wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject(guard, Reason.CONCURRENCY_LIMIT, "等待模型服务 " + provider + " 并发许可时被中断");
+                }
+            }
+            guard.inFlight++;
+            probe = guard.state == State.HALF_OPEN;
+            if (probe) {
+                guard.halfOpenInFlight++;
+            }
+        }
+        return new Permit(guard, probe);
+    }
+
+    /**
+     * Embedding 并发已满时等待许可的最长时间（毫秒）
+     */
+    public long getEmbeddingWaitMillis() {
+        return embeddingWaitMillis;
+    }
+
+    /**
+     * 熔断器是否允许请求（路由时把熔断中的提供商排到最后）
+     */
+    public boolean isAvailable(String kind, String configId) {
+        Guard guard = guards.get(kind + ":" + configId);
+        return guard == null || guard.state != State.OPEN
+                || System.currentTimeMillis() - guard.openedAt >= openSeconds * 1000;
+    }
+
+    /**
+     * 在途请求数（提供商池按它做最少在途路由）
+     */
+    public int inFlight(String kind, String configId) {
+        Guard guard = guards.get(kind + ":" + configId);
+        return guard == null ? 0 : guard.inFlight;
+    }
+
+    /**
+     * 配置被修改或删除时清除其状态
+     */
+    public void reset(String configId) {
+        guards.remove(CHAT + ":" + configId);
+        guards.remove(EMBEDDING + ":" + configId);
+    }
+
+    public List<GuardSnapshot> snapshot() {
+        return guards.values().stream()
+                .map(guard -> {
+                    synchronized (guard) {
+                        return new GuardSnapshot(guard.kind, guard.configId, guard.provider, guard.state,
+                                guard.windowCount == 0 ? 0 : (double) guard.windowFailures / guard.windowCount,
+                                guard.windowCount, (int) guard.limit, guard.inFlight, guard.rejected);
+                    }
+                })
+                .sorted(Comparator.comparing(GuardSnapshot::kind).thenComparing(GuardSnapshot::configId))
+                .toList();
+    }
+
+    private Guard guardOf(String kind, String configId, String provider) {
+        Guard guard = guards.computeIfAbsent(kind + ":" + configId,
+                key -> new Guard(kind, configId, provider, windowSize, Math.max(initialLimit, minLimitOf(kind))));
+        guard.provider = provider;
+        return guard;
+    }
+
+    private int minLimitOf(String kind) {
+        return EMBEDDING.equals(kind) ? Math.max(minLimit, embeddingMinLimit) : minLimit;
+    }
+
+    private ProviderUnavailableException reject(Guard guard, Reason reason, String message) {
+        guard.rejected++;
+        Counter.builder("llm.provider.rejected")
+                .tag("kind", guard.kind)
+                .tag("reason", reason.name())
+                .register(meterRegistry)
+                .increment();
+        return new ProviderUnavailableException(reason, guard.provider, message);
+    }
+
+    private void onOutcome(Guard guard, boolean probe, boolean success, long latencyMillis) {
+        long slowCallMillis = CHAT.equals(guard.kind) ? chatSlowCallMillis : embeddingSlowCallMillis;
+        synchronized (guard) {
+            // 自适应并发上限
+            if (success && latencyMillis <= slowCallMillis) {
+                if (guard.inFlight * 2 >= guard.limit) {
+                    guard.limit = Math.min(maxLimit, guard.limit + 1);
+                    guard.notifyAll();
+                }
+            } else {
+                guard.limit = Math.max(minLimitOf(guard.kind), guard.limit * backoffRatio);
+            }
+            if (!enabled) {
+                return;
+            }
+
+            // 熔断器
+            if (probe) {
+                guard.halfOpenInFlight--;
+                if (guard.state == State.HALF_OPEN) {
+                    if (success) {
+                        guard.state = State.CLOSED;
+                        guard.clearWindow();
+                        log.info("熔断器关闭，恢复正常: {} {}", guard.kind, guard.provider);
+                    } else {
+                        open(guard);
+                    }
+                }
+                return;
+            }
+            guard.record(success);
+            if (guard.state == State.CLOSED && guard.windowCount >= minCalls
+                    && (double) guard.windowFailures / guard.windowCount >= failureRateThreshold) {
+                open(guard);
+            }
+        }
+    }
+
+    private void open(Guard guard) {
+        guard.state = State.OPEN;
+        guard.openedAt = System.currentTimeMillis();
+        guard.clearWindow();
+        log.warn("熔断器打开，{} 秒内拒绝请求: {} {}", openSeconds, guard.kind, guard.provider);
+    }
+
+    private void onRelease(Guard guard, boolean probe, boolean completed) {
+        synchronized (guard) {
+            guard.inFlight--;
+            guard.notifyAll();
+            // 试探请求被取消（没有结果），归还试探名额
+            if (probe && !completed && guard.state == State.HALF_OPEN) {
+                guard.halfOpenInFlight--;
+            }
+        }
+    }
+
+    /**
+     * 一次调用的许可：结果（success / failure）只记录第一次，release 只生效一次
+     */
+    public final class Permit {
+
+        private final Guard guard;
+        private final boolean probe;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Guard guard, boolean probe) {
+            this.guard = guard;
+            this.probe = probe;
+        }
+
+        /**
+         * 调用成功（流式调用在收到首 Token 时调用，耗时即首 Token 耗时）
+         */
+        public void success() {
+            if (completed.compareAndSet(false, true)) {
+                onOutcome(guard, probe, true, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+
+        public void failure(Throwable e) {
+            if (completed.compareAndSet(false, true)) {
+                onOutcome(guard, probe, false, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                onRelease(guard, probe, completed.get());
+            }
+        }
+    }
+
+    private static final class Guard {
+
+        private final String kind;
+        private final String configId;
+        private volatile String provider;
+
+        private volatile State state = State.CLOSED;
+        private long openedAt;
+        private int halfOpenInFlight;
+
+        /**
+         * 最近调用结果的环形窗口，true 为失败
+         */
+        private final boolean[] window;
+        private int windowIndex;
+        private int windowCount;
+        private int windowFailures;
+
+        private double limit;
+        private volatile int inFlight;
+        private long rejected;
+
+        private Guard(String kind, String configId, String provider, int windowSize, int initialLimit) {
+            this.kind = kind;
+            this.configId = configId;
+            this.provider = provider;
+            this.window = new boolean[Math.max(1, windowSize)];
+            this.limit = initialLimit;
+        }
+
+        private void record(boolean success) {
+            if (windowCount == window.length) {
+                if (window[windowIndex]) {
+                    windowFailures--;
+                }
+            } else {
+                windowCount++;
+            }
+            window[windowIndex] = !success;
+            if (!success) {
+                windowFailures++;
+            }
+            windowIndex = (windowIndex + 1) % window.length;
+        }
+
+        private void clearWindow() {
+            windowIndex = 0;
+            windowCount = 0;
+            windowFailures = 0;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.xbk.xfg.dev.tech.domain.factory;
+
+/**
+ * 提供商暂不可用：熔断打开或并发达到上限时快速失败，不再等待上游超时
+ *
+ * @author xiexu
+ */
+public class ProviderUnavailableException extends RuntimeException {
+
+    public enum Reason {
+        /**
+         * 熔断打开
+         */
+        CIRCUIT_OPEN,
+        /**
+         * 并发达到自适应上限
+         */
+        CONCURRENCY_LIMIT
+    }
+
+    private final Reason reason;
+
+    private final String provider;
+
+    public ProviderUnavailableException(Reason reason, String provider, String message) {
+        super(message);
+        this.reason = reason;
+        this.provider = provider;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+}
@@ -0,0 +1,378 @@
+package com.xbk.xfg.dev.tech.domain.ingestion;
+
+import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.reader.tika.TikaDocumentReader;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.PathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 文档导入流水线
+ * 将「扫描 → 解析 → 切块 → 向量化 → 写入」拆分为多个阶段，每个阶段使用独立的有界线程池
+ *
+ * <h2>为什么需要流水线？</h2>
+ * 原实现在 SimpleFileVisitor 中逐个文件串行处理，CPU 和 Embedding 服务大部分时间都在互相等待：
+ * - 解析（Tika）和切块（Token 计算）是 CPU 密集型
+ * - 向量化是 IO 密集型（Embedding HTTP 调用）
+ * - 写入是 IO 密集型（JDBC）
+ * 拆成多个阶段后，各阶段可以同时推进，整体耗时接近最慢的那个阶段
+ *
+ * <h2>向量化与写入分离</h2>
+ * 原来的 PgVectorStore.accept() 每个文件先向量化再用多行 INSERT 写入。
+ * 现在向量化阶段只负责调用 Embedding，写入阶段把多个文件的切块攒成一批，
+ * 通过 {@link VectorStoreRepository#batchSave} 使用 COPY 一次写入
+ *
+ * <h2>背压</h2>
+ * 阶段之间通过有界队列连接，下游队列满时上游提交会阻塞（包括扫描线程），
+ * 因此无论仓库有多少文件，内存中同时存在的文档数量都是有上限的（写入缓冲区另外最多攒 writeBatchSize 个切块）
+ *
+ * <h2>使用方式</h2>
+ * <pre>
+ * try (Session session = pipeline.open(taskId, ragTag, listener, cancelled)) {
+ *     session.submit(file, sourcePath);  // 扫描阶段，由调用线程执行
+ *     session.finish();                 // 等待所有阶段排空
+ * }
+ * </pre>
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class DocumentIngestionPipeline {
+
+    /**
+     * 文档来源路径（相对仓库根目录），增量索引时按该字段删除旧向量
+     */
+    public static final String METADATA_SOURCE_PATH = "source_path";
+
+    /**
+     * 阶段队列满时阻塞提交线程，而不是丢弃或在提交线程上执行
+     */
+    private static final RejectedExecutionHandler BLOCKING_POLICY = (task, executor) -> {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("流水线阶段已关闭");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("提交流水线任务被中断", e);
+        }
+    };
+
+    /**
+     * 解析阶段并行度（Tika 解析，CPU 密集）
+     */
+    @Value("${rag.ingestion.parse-parallelism:4}")
+    private int parseParallelism;
+
+    /**
+     * 切块阶段并行度（Token 切分，CPU 密集）
+     */
+    @Value("${rag.ingestion.split-parallelism:2}")
+    private int splitParallelism;
+
+    /**
+     * 向量化阶段并行度（Embedding 调用，IO 密集）
+     */
+    @Value("${rag.ingestion.embed-parallelism:2}")
+    private int embedParallelism;
+
+    /**
+     * 写入阶段每批的切块数，攒够后 COPY 一次
+     */
+    @Value("${rag.ingestion.write-batch-size:1000}")
+    private int writeBatchSize;
+
+    /**
+     * 每个阶段的队列容量，决定了流水线中最多积压的文件数
+     */
+    @Value("${rag.ingestion.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Resource
+    private TokenTextSplitter tokenTextSplitter;
+
+    @Resource
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+
+    /**
+     * 与 PgVectorStore 相同的分批策略：按 Token 数拆分 Embedding 请求
+     */
+    private final BatchingStrategy batchingStrategy = new TokenCountBatchingStrategy();
+
+    /**
+     * 打开一次导入会话，每个会话拥有自己的线程池，会话结束后释放
+     *
+     * @param taskId    任务 ID，用于线程命名和日志
+     * @param ragTag    知识库标签，写入文档 metadata.knowledge
+     * @param listener  进度回调（每处理完一个文件回调一次，可能被多个线程并发调用）
+     * @param cancelled 取消信号，每个阶段处理前都会检查
+     */
+    public Session open(String taskId, String ragTag, ProgressListener listener, BooleanSupplier cancelled) {
+        return new Session(taskId, ragTag, listener, cancelled);
+    }
+
+    /**
+     * 进度回调
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * 单个文件已走完流水线（成功或失败）
+         *
+         * @param completed 已完成的文件数
+         * @param fileName  刚完成的文件名
+         */
+        void onFileCompleted(int completed, String fileName);
+    }
+
+    /**
+     * 一次导入会话
+     */
+    public class Session implements AutoCloseable {
+
+        private final String ragTag;
+        private final ProgressListener listener;
+        private final BooleanSupplier cancelled;
+
+        private final ThreadPoolExecutor parseStage;
+        private final ThreadPoolExecutor splitStage;
+        private final ThreadPoolExecutor embedStage;
+
+        /**
+         * 写入阶段固定单线程，下面的待写入缓冲区只在该线程中访问
+         */
+        private final ThreadPoolExecutor writeStage;
+
+        private final List<Document> pendingDocuments = new ArrayList<>();
+        private final List<float[]> pendingEmbeddings = new ArrayList<>();
+        private final List<String> pendingFiles = new ArrayList<>();
+
+        /**
+         * 每个待写入文件的切块数，与 pendingFiles 一一对应，批量写入失败时按文件拆分
+         */
+        private final List<Integer> pendingChunkCounts = new ArrayList<>();
+
+        private final AtomicInteger completed = new AtomicInteger(0);
+        private final AtomicInteger failed = new AtomicInteger(0);
+
+        private Session(String taskId, String ragTag, ProgressListener listener, BooleanSupplier cancelled) {
+            this.ragTag = ragTag;
+            this.listener = listener;
+            this.cancelled = cancelled;
+            String prefix = "ingest-" + taskId.substring(0, Math.min(8, taskId.length()));
+            this.parseStage = newStage(prefix + "-parse", parseParallelism);
+            this.splitStage = newStage(prefix + "-split", splitParallelism);
+            this.embedStage = newStage(prefix + "-embed", embedParallelism);
+            this.writeStage = newStage(prefix + "-write", 1);
+        }
+
+        /**
+         * 扫描阶段：提交一个文件，解析队列满时阻塞
+         *
+         * @param file       文件
+         * @param sourcePath 来源路径（相对仓库根目录），写入 metadata.source_path
+         */
+        public void submit(Path file, String sourcePath) throws InterruptedException {
+            submit(new PathResource(file), sourcePath);
+        }
+
+        /**
+         * 扫描阶段：提交一个资源（例如直接从 Git 对象库读取的内容），解析队列满时阻塞
+         *
+         * @param resource   文件内容，需要提供文件名以便 Tika 识别类型
+         * @param sourcePath 来源路径（相对仓库根目录），写入 metadata.source_path
+         */
+        public void submit(Resource resource, String sourcePath) throws InterruptedException {
+            if (cancelled.getAsBoolean()) {
+                throw new InterruptedException("用户取消任务");
+            }
+            parseStage.execute(() -> parse(resource, sourcePath));
+        }
+
+        /**
+         * 按阶段顺序关闭并等待排空
+         * 上游阶段终止后不会再向下游提交任务，因此逐级 shutdown 即可保证所有文件都被处理
+         */
+        public void finish() throws InterruptedException {
+            drain(parseStage);
+            drain(splitStage);
+            drain(embedStage);
+            // 上游全部结束后写入最后一批不足 writeBatchSize 的切块
+            writeStage.execute(this::flush);
+            drain(writeStage);
+            log.info("导入流水线完成: 知识库 {}, 文件 {} 个, 失败 {} 个", ragTag, completed.get(), failed.get());
+        }
+
+        public int getCompleted() {
+            return completed.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public void close() {
+            parseStage.shutdownNow();
+            splitStage.shutdownNow();
+            embedStage.shutdownNow();
+            writeStage.shutdownNow();
+        }
+
+        private void parse(Resource resource, String sourcePath) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            String fileName = resource.getFilename() != null ? resource.getFilename() : sourcePath;
+            try {
+                TikaDocumentReader reader = new TikaDocumentReader(resource);
+                List<Document> documents = reader.get();
+                splitStage.execute(() -> split(fileName, sourcePath, documents));
+            } catch (Exception e) {
+                onFailed(fileName, e);
+            }
+        }
+
+        private void split(String file, String sourcePath, List<Document> documents) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            try {
+                List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
+                documents.forEach(doc -> doc.getMetadata().put("knowledge", ragTag));
+                documentSplitterList.forEach(doc -> {
+                    doc.getMetadata().put("knowledge", ragTag);
+                    doc.getMetadata().put(METADATA_SOURCE_PATH, sourcePath);
+                });
+                embedStage.execute(() -> embed(file, documentSplitterList));
+            } catch (Exception e) {
+                onFailed(file, e);
+            }
+        }
+
+        private void embed(String file, List<Document> documentSplitterList) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            try {
+                List<float[]> embeddings = embeddingModel.embed(documentSplitterList,
+                        EmbeddingOptionsBuilder.builder().build(), batchingStrategy);
+                writeStage.execute(() -> write(file, documentSplitterList, embeddings));
+            } catch (Exception e) {
+                onFailed(file, e);
+            }
+        }
+
+        private void write(String file, List<Document> documentSplitterList, List<float[]> embeddings) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            pendingDocuments.addAll(documentSplitterList);
+            pendingEmbeddings.addAll(embeddings);
+            pendingFiles.add(file);
+            pendingChunkCounts.add(documentSplitterList.size());
+            if (pendingDocuments.size() >= writeBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 把攒下的切块一次 COPY 写入，写入成功后这些文件才算完成
+         * 整批失败时（例如某一行数据异常）逐个文件重新写入，只有写入失败的文件记为失败
+         */
+        private void flush() {
+            if (pendingFiles.isEmpty()) {
+                return;
+            }
+            try {
+                vectorStoreRepository.batchSave(pendingDocuments, pendingEmbeddings);
+                pendingFiles.forEach(this::onCompleted);
+            } catch (Exception e) {
+                log.warn("批量写入 {} 个文件失败，逐个文件重试: {}", pendingFiles.size(), e.getMessage());
+                saveEachFile();
+            } finally {
+                pendingDocuments.clear();
+                pendingEmbeddings.clear();
+                pendingFiles.clear();
+                pendingChunkCounts.clear();
+            }
+        }
+
+        private void saveEachFile() {
+            int offset = 0;
+            for (int i = 0; i < pendingFiles.size(); i++) {
+                int end = offset + pendingChunkCounts.get(i);
+                try {
+                    vectorStoreRepository.batchSave(pendingDocuments.subList(offset, end),
+                            pendingEmbeddings.subList(offset, end));
+                    onCompleted(pendingFiles.get(i));
+                } catch (Exception e) {
+                    onFailed(pendingFiles.get(i), e);
+                }
+                offset = end;
+            }
+        }
+
+        private void onFailed(String file, Exception e) {
+            log.error("处理文件失败: " + file, e);
+            failed.incrementAndGet();
+            onCompleted(file);
+        }
+
+        private void onCompleted(String fileName) {
+            int c = completed.incrementAndGet();
+            try {
+                listener.onFileCompleted(c, fileName);
+            } catch (Exception e) {
+                log.warn("进度回调失败: {}", e.getMessage());
+            }
+        }
+
+        private void drain(ThreadPoolExecutor stage) throws InterruptedException {
+            stage.shutdown();
+            // 取消后队列中的任务会直接返回，因此这里不会长时间阻塞
+            while (!stage.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.debug("等待流水线阶段排空: 剩余 {} 个任务", stage.getQueue().size());
+            }
+        }
+    }
+
+    private ThreadPoolExecutor newStage(String name, int parallelism) {
+        int threads = Math.max(1, parallelism);
+        AtomicInteger index = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory, BLOCKING_POLICY);
+    }
+}
@@ -0,0 +1,154 @@
+package com.xbk.xfg.dev.tech.domain.ingestion;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 文件清单
+ * 扫描一次仓库得到待处理文件的路径、大小和扩展名，后续解析和进度统计都基于清单进行
+ *
+ * <h2>为什么需要清单？</h2>
+ * 原实现先遍历一遍目录树统计文件数，再遍历一遍逐个处理，并且每个文件都额外调用 Files.size()。
+ * 大仓库放在慢盘上时，目录遍历本身就很耗时。
+ * 清单只遍历一次，大小直接取自遍历时拿到的 BasicFileAttributes。
+ *
+ * @author xiexu
+ */
+public class FileManifest {
+
+    private final List<Entry> entries;
+
+    private final long totalBytes;
+
+    public FileManifest(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.totalBytes = entries.stream().mapToLong(Entry::size).sum();
+    }
+
+    /**
+     * 单次遍历目录树生成清单，.git 目录整体跳过
+     *
+     * @param root      仓库根目录
+     * @param filter    路径 + 大小过滤（路径为相对根目录、'/' 分隔）
+     * @param cancelled 取消信号，返回 true 时停止遍历
+     */
+    public static FileManifest scan(Path root, Filter filter, BooleanSupplier cancelled) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (".git".equals(String.valueOf(dir.getFileName()))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (cancelled.getAsBoolean()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String path = relativize(root, file);
+                if (filter.acceptPath(path) && filter.acceptSize(attrs.size())) {
+                    entries.add(new Entry(path, attrs.size(), null));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new FileManifest(entries);
+    }
+
+    /**
+     * 为指定的文件（增量变更）生成清单，每个文件只读取一次属性
+     *
+     * @param root   仓库根目录
+     * @param paths  相对根目录的路径
+     * @param filter 路径 + 大小过滤
+     */
+    public static FileManifest of(Path root, Collection<String> paths, Filter filter) {
+        List<Entry> entries = new ArrayList<>();
+        for (String path : paths) {
+            if (!filter.acceptPath(path)) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(root.resolve(path), BasicFileAttributes.class);
+                if (attrs.isRegularFile() && filter.acceptSize(attrs.size())) {
+                    entries.add(new Entry(path, attrs.size(), null));
+                }
+            } catch (IOException e) {
+                // 文件在工作区中不存在（例如变更后又被忽略），跳过
+            }
+        }
+        return new FileManifest(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static String relativize(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * 清单条目
+     *
+     * @param path     相对仓库根目录的路径（'/' 分隔）
+     * @param size     文件大小（字节）
+     * @param objectId Git 对象 ID，只有从对象库生成的清单才有
+     */
+    public record Entry(String path, long size, String objectId) {
+
+        /**
+         * 文件名（不含目录）
+         */
+        public String fileName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * 扩展名（小写，不含点），没有扩展名时返回空字符串
+         */
+        public String extension() {
+            String name = fileName();
+            int dot = name.lastIndexOf('.');
+            return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+        }
+    }
+
+    /**
+     * 清单过滤，先判断路径，再判断大小
+     */
+    public interface Filter {
+
+        boolean acceptPath(String path);
+
+        boolean acceptSize(long size);
+    }
+}
@@ -0,0 +1,419 @@
+package com.xbk.xfg.dev.tech.domain.ingestion;
+
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Git 仓库同步
+ * 负责克隆 / 增量拉取仓库，并计算相对上一次索引的文件变更
+ *
+ * <h2>增量索引</h2>
+ * 1. 每个知识库（ragTag）在 Redis 中记录上一次完成索引的提交：rag:git:commit:{ragTag}，
+ *    以及对应的仓库地址 rag:git:repo:{ragTag}（ragTag 只取自项目名，不同组织下的同名仓库会落到同一个 ragTag，
+ *    地址不一致时不能基于旧提交增量，退回全量）
+ * 2. 本地仓库按 ragTag 保留在 ./git-cloned-repo/{ragTag}，下次只需 fetch 新对象
+ * 3. 用 JGit 对比两次提交的目录树，得到新增/修改/删除的文件
+ * 4. 调用方只重新向量化新增和修改的文件，并按 metadata.source_path 删除旧向量
+ *
+ * 没有索引记录、本地仓库丢失或旧提交已不可达时，退回全量克隆。
+ *
+ * <h2>两种模式</h2>
+ * - checkout：普通克隆，检出工作区，调用方按文件路径读取
+ * - blob：裸仓库 + 深度为 1 的单分支 fetch，不检出工作区，
+ *   调用方通过 {@link SyncResult#manifest} 和 {@link SyncResult#readBlob} 直接从对象库读取文件内容，
+ *   路径和大小过滤在加载内容之前完成
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class GitRepositorySync {
+
+    private static final String INDEXED_COMMIT_KEY_PREFIX = "rag:git:commit:";
+
+    private static final String INDEXED_REPO_KEY_PREFIX = "rag:git:repo:";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 获取知识库上一次完成索引的提交 ID
+     *
+     * @param repoUrl 本次分析的仓库地址
+     * @return 提交 ID；没有记录，或记录来自其他仓库地址（含未记录地址的旧记录）时返回 null，按全量处理
+     */
+    public String getIndexedCommit(String ragTag, String repoUrl) {
+        Map<String, String> stored = redissonClient.getBuckets(StringCodec.INSTANCE)
+                .get(INDEXED_COMMIT_KEY_PREFIX + ragTag, INDEXED_REPO_KEY_PREFIX + ragTag);
+        String commitId = stored.get(INDEXED_COMMIT_KEY_PREFIX + ragTag);
+        if (commitId == null) {
+            return null;
+        }
+        String indexedRepo = stored.get(INDEXED_REPO_KEY_PREFIX + ragTag);
+        if (!sameRepository(indexedRepo, repoUrl)) {
+            log.info("知识库 {} 上一次索引的仓库为 {}，与本次 {} 不一致，全量重建", ragTag, indexedRepo, repoUrl);
+            return null;
+        }
+        return commitId;
+    }
+
+    /**
+     * 记录知识库本次完成索引的提交 ID 及仓库地址，只有在全部文件处理完成后才调用
+     */
+    public void saveIndexedCommit(String ragTag, String repoUrl, String commitId) {
+        redissonClient.getBuckets(StringCodec.INSTANCE).set(Map.of(
+                INDEXED_COMMIT_KEY_PREFIX + ragTag, commitId,
+                INDEXED_REPO_KEY_PREFIX + ragTag, repoUrl));
+    }
+
+    /**
+     * 清除索引记录（知识库被删除时调用），下次分析会全量重建
+     */
+    public void clearIndexedCommit(String ragTag) {
+        redissonClient.getKeys().delete(INDEXED_COMMIT_KEY_PREFIX + ragTag, INDEXED_REPO_KEY_PREFIX + ragTag);
+    }
+
+    /**
+     * 同步仓库：有可用的索引记录时增量拉取，否则全量克隆
+     *
+     * @param repoUrl       仓库地址
+     * @param localDir      本地仓库目录
+     * @param credentials   认证信息
+     * @param indexedCommit 上一次索引的提交，为空表示全量
+     * @return 同步结果，使用完毕后需要关闭
+     */
+    public SyncResult sync(String repoUrl, File localDir, CredentialsProvider credentials, String indexedCommit) throws Exception {
+        if (indexedCommit != null && new File(localDir, Constants.DOT_GIT).exists()) {
+            try {
+                return fetchIncremental(repoUrl, localDir, credentials, indexedCommit);
+            } catch (Exception e) {
+                log.warn("增量拉取失败，退回全量克隆: {} - {}", repoUrl, e.getMessage());
+            }
+        }
+        return cloneFull(repoUrl, localDir, credentials);
+    }
+
+    /**
+     * 裸仓库同步：只 fetch 一个分支的最新提交（depth=1），不检出工作区
+     *
+     * @param repoUrl       仓库地址
+     * @param gitDir        本地裸仓库目录
+     * @param credentials   认证信息
+     * @param branch        分支，为空时使用远程默认分支
+     * @param indexedCommit 上一次索引的提交，为空表示全量
+     * @return 同步结果，使用完毕后需要关闭
+     */
+    public SyncResult syncBare(String repoUrl, File gitDir, CredentialsProvider credentials,
+                               String branch, String indexedCommit) throws Exception {
+        String targetBranch = branch == null || branch.isBlank()
+                ? resolveDefaultBranch(repoUrl, credentials)
+                : branch;
+
+        boolean reuse = indexedCommit != null && new File(gitDir, Constants.HEAD).exists();
+        if (!reuse) {
+            FileUtils.deleteDirectory(gitDir);
+        }
+
+        Git git = reuse
+                ? Git.open(gitDir)
+                : Git.init().setBare(true).setGitDir(gitDir).call();
+        try {
+            Repository repository = git.getRepository();
+            String trackingRef = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + targetBranch;
+
+            git.fetch()
+                    .setRemote(repoUrl)
+                    .setCredentialsProvider(credentials)
+                    .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + targetBranch + ":" + trackingRef))
+                    .setDepth(1)
+                    .call();
+
+            ObjectId remoteHead = repository.resolve(trackingRef);
+            if (remoteHead == null) {
+                throw new IOException("找不到远程分支: " + targetBranch);
+            }
+
+            if (reuse) {
+                List<String> changed = new ArrayList<>();
+                List<String> deleted = new ArrayList<>();
+                try {
+                    if (!remoteHead.name().equals(indexedCommit)) {
+                        diff(repository, ObjectId.fromString(indexedCommit), remoteHead, changed, deleted);
+                    }
+                    log.info("增量拉取完成(裸仓库): {} → {}，变更 {} 个文件，删除 {} 个文件",
+                            indexedCommit, remoteHead.name(), changed.size(), deleted.size());
+                    return new SyncResult(git, remoteHead.name(), false, changed, deleted);
+                } catch (Exception e) {
+                    // 旧提交的对象不在本地（例如之前是 checkout 模式），整棵树重新导入
+                    log.warn("无法对比旧提交 {}，全量导入: {}", indexedCommit, e.getMessage());
+                }
+            }
+            return new SyncResult(git, remoteHead.name(), true, List.of(), List.of());
+        } catch (Exception e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    private String resolveDefaultBranch(String repoUrl, CredentialsProvider credentials) throws Exception {
+        Map<String, Ref> refs = Git.lsRemoteRepository()
+                .setRemote(repoUrl)
+                .setCredentialsProvider(credentials)
+                .callAsMap();
+        Ref head = refs.get(Constants.HEAD);
+        if (head != null && head.isSymbolic()) {
+            return Repository.shortenRefName(head.getTarget().getName());
+        }
+        // 服务端未声明 HEAD 的符号引用时，按常见默认分支猜测
+        for (String candidate : List.of("main", "master")) {
+            if (refs.containsKey(Constants.R_HEADS + candidate)) {
+                return candidate;
+            }
+        }
+        throw new IOException("无法确定远程默认分支，请指定分支");
+    }
+
+    private SyncResult cloneFull(String repoUrl, File localDir, CredentialsProvider credentials) throws Exception {
+        FileUtils.deleteDirectory(localDir);
+        Git git = Git.cloneRepository()
+                .setURI(repoUrl)
+                .setDirectory(localDir)
+                .setCredentialsProvider(credentials)
+                .call();
+        ObjectId head = git.getRepository().resolve(Constants.HEAD);
+        return new SyncResult(git, head != null ? head.name() : null, true, List.of(), List.of());
+    }
+
+    private SyncResult fetchIncremental(String repoUrl, File localDir, CredentialsProvider credentials,
+                                        String indexedCommit) throws Exception {
+        Git git = Git.open(localDir);
+        try {
+            Repository repository = git.getRepository();
+            String branch = repository.getBranch();
+
+            // 本地目录按项目名复用，可能是另一个同名仓库的克隆
+            String originUrl = repository.getConfig().getString("remote", Constants.DEFAULT_REMOTE_NAME, "url");
+            if (!sameRepository(originUrl, repoUrl)) {
+                throw new IOException("本地仓库来自 " + originUrl + "，与 " + repoUrl + " 不一致");
+            }
+
+            // 显式指定地址，不依赖本地仓库配置中的 origin
+            String trackingRefs = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*";
+            git.fetch()
+                    .setRemote(repoUrl)
+                    .setCredentialsProvider(credentials)
+                    .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + trackingRefs))
+                    .call();
+
+            ObjectId remoteHead = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch);
+            if (remoteHead == null) {
+                throw new IOException("找不到远程分支: " + branch);
+            }
+
+            // 工作区切换到最新提交，后续按路径读取文件
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(remoteHead.name()).call();
+
+            List<String> changed = new ArrayList<>();
+            List<String> deleted = new ArrayList<>();
+            if (!remoteHead.name().equals(indexedCommit)) {
+                diff(repository, ObjectId.fromString(indexedCommit), remoteHead, changed, deleted);
+            }
+            log.info("增量拉取完成: {} → {}，变更 {} 个文件，删除 {} 个文件",
+                    indexedCommit, remoteHead.name(), changed.size(), deleted.size());
+            return new SyncResult(git, remoteHead.name(), false, changed, deleted);
+        } catch (Exception e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 比较两个仓库地址（忽略首尾空白、大小写、末尾的 / 和 .git）
+     */
+    private static boolean sameRepository(String a, String b) {
+        return a != null && b != null && normalizeUrl(a).equals(normalizeUrl(b));
+    }
+
+    private static String normalizeUrl(String url) {
+        String normalized = url.trim().toLowerCase(Locale.ROOT);
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.endsWith(".git")) {
+            normalized = normalized.substring(0, normalized.length() - 4);
+        }
+        return normalized;
+    }
+
+    private void diff(Repository repository, ObjectId oldCommit, ObjectId newCommit,
+                      List<String> changed, List<String> deleted) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository);
+             DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            RevCommit oldRev = revWalk.parseCommit(oldCommit);
+            RevCommit newRev = revWalk.parseCommit(newCommit);
+            formatter.setRepository(repository);
+
+            for (DiffEntry entry : formatter.scan(oldRev.getTree(), newRev.getTree())) {
+                switch (entry.getChangeType()) {
+                    case ADD, MODIFY, COPY -> changed.add(entry.getNewPath());
+                    case DELETE -> deleted.add(entry.getOldPath());
+                    case RENAME -> {
+                        deleted.add(entry.getOldPath());
+                        changed.add(entry.getNewPath());
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 同步结果
+     */
+    public static class SyncResult implements AutoCloseable {
+
+        private final Git git;
+        private final String headCommit;
+        private final boolean full;
+        private final List<String> changedPaths;
+        private final List<String> deletedPaths;
+
+        public SyncResult(Git git, String headCommit, boolean full, List<String> changedPaths, List<String> deletedPaths) {
+            this.git = git;
+            this.headCommit = headCommit;
+            this.full = full;
+            this.changedPaths = changedPaths;
+            this.deletedPaths = deletedPaths;
+        }
+
+        /**
+         * 同步后的最新提交
+         */
+        public String getHeadCommit() {
+            return headCommit;
+        }
+
+        /**
+         * 是否为全量克隆（需要重建整个知识库）
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * 新增或修改的文件（相对仓库根目录）
+         */
+        public List<String> getChangedPaths() {
+            return changedPaths;
+        }
+
+        /**
+         * 已删除的文件（相对仓库根目录）
+         */
+        public List<String> getDeletedPaths() {
+            return deletedPaths;
+        }
+
+        /**
+         * 本地仓库占用的磁盘空间（字节）
+         */
+        public long getDiskBytes() {
+            File dir = git.getRepository().isBare()
+                    ? git.getRepository().getDirectory()
+                    : git.getRepository().getWorkTree();
+            return FileUtils.sizeOfDirectory(dir);
+        }
+
+        /**
+         * 单次遍历对象库中最新提交的目录树生成清单，不依赖工作区
+         * 大小读取自对象头，不加载文件内容
+         *
+         * @param paths  只包含这些路径，为 null 时遍历整棵树
+         * @param filter 路径 + 大小过滤
+         */
+        public FileManifest manifest(Collection<String> paths, FileManifest.Filter filter) throws IOException {
+            List<FileManifest.Entry> entries = new ArrayList<>();
+            if (paths != null && paths.isEmpty()) {
+                return new FileManifest(entries);
+            }
+            Repository repository = git.getRepository();
+            try (RevWalk revWalk = new RevWalk(repository);
+                 ObjectReader reader = repository.newObjectReader();
+                 TreeWalk treeWalk = new TreeWalk(repository, reader)) {
+                treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(headCommit)).getTree());
+                treeWalk.setRecursive(true);
+                if (paths != null) {
+                    treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+                }
+
+                while (treeWalk.next()) {
+                    FileMode mode = treeWalk.getFileMode(0);
+                    if (!FileMode.REGULAR_FILE.equals(mode) && !FileMode.EXECUTABLE_FILE.equals(mode)) {
+                        continue;
+                    }
+                    String path = treeWalk.getPathString();
+                    if (!filter.acceptPath(path)) {
+                        continue;
+                    }
+                    ObjectId blobId = treeWalk.getObjectId(0);
+                    long size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+                    if (filter.acceptSize(size)) {
+                        entries.add(new FileManifest.Entry(path, size, blobId.name()));
+                    }
+                }
+            }
+            return new FileManifest(entries);
+        }
+
+        /**
+         * 从对象库读取清单中某个文件的内容
+         */
+        public byte[] readBlob(FileManifest.Entry entry) throws IOException {
+            try (ObjectReader reader = git.getRepository().newObjectReader()) {
+                return reader.open(ObjectId.fromString(entry.objectId()), Constants.OBJ_BLOB).getBytes();
+            }
+        }
+
+        /**
+         * 增量模式下没有任何变更
+         */
+        public boolean isUpToDate() {
+            return !full && changedPaths.isEmpty() && deletedPaths.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            git.close();
+        }
+    }
+}
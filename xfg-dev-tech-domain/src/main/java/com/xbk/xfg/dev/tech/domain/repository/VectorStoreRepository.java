@@ -2,6 +2,7 @@ package com.xbk.xfg.dev.tech.domain.repository;
 
 import org.springframework.ai.document.Document;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -19,16 +20,26 @@ public interface VectorStoreRepository {
 
     /**
      * 根据知识库标签删除向量数据
-     * 对应 SQL: DELETE FROM vector_store WHERE metadata->>'knowledge' = ?
+     * 对应 SQL: DELETE FROM vector_store WHERE knowledge = ?
      *
      * @param ragTag 知识库标签
      * @return 删除的行数
      */
     int deleteByRagTag(String ragTag);
 
+    /**
+     * 删除知识库中指定来源文件的向量数据（增量索引时使用）
+     * 对应 SQL: DELETE FROM vector_store WHERE knowledge = ? AND metadata->>'source_path' = ANY(?)
+     *
+     * @param ragTag      知识库标签
+     * @param sourcePaths 来源路径列表（相对仓库根目录）
+     * @return 删除的行数
+     */
+    int deleteByRagTagAndSourcePaths(String ragTag, Collection<String> sourcePaths);
+
     /**
      * 根据知识库标签统计向量数量
-     * 对应 SQL: SELECT COUNT(*) FROM vector_store WHERE metadata->>'knowledge' = ?
+     * 对应 SQL: SELECT COUNT(*) FROM vector_store WHERE knowledge = ?
      *
      * @param ragTag 知识库标签
      * @return 向量数量
@@ -37,7 +48,7 @@ public interface VectorStoreRepository {
 
     /**
      * 查询所有不重复的知识库标签
-     * 对应 SQL: SELECT DISTINCT metadata->>'knowledge' FROM vector_store
+     * 对应 SQL: SELECT DISTINCT knowledge FROM vector_store（递归 CTE 跳跃扫描索引）
      *
      * @return 知识库标签列表
      */
@@ -45,7 +56,7 @@ public interface VectorStoreRepository {
 
     /**
      * 根据知识库标签查询所有文档
-     * 对应 SQL: SELECT * FROM vector_store WHERE metadata->>'knowledge' = ?
+     * 对应 SQL: SELECT * FROM vector_store WHERE knowledge = ?
      *
      * @param ragTag 知识库标签
      * @return 文档列表
@@ -53,13 +64,42 @@ public interface VectorStoreRepository {
     List<Document> findDocumentsByRagTag(String ragTag);
 
     /**
-     * 批量保存文档（带向量）
-     * 对应 SQL: INSERT INTO vector_store (content, metadata, embedding) VALUES (?, ?, ?)
+     * 在指定知识库中做相似度检索（余弦相似度）
+     * 对应 SQL: SELECT ... FROM vector_store WHERE knowledge = ANY(?) ORDER BY embedding <=> ? LIMIT ?
+     *
+     * @param embedding           查询向量
+     * @param ragTags             知识库标签
+     * @param topK                最多返回条数
+     * @param similarityThreshold 相似度阈值（0-1），低于该值的文档不返回
+     * @return 按相似度从高到低排列的文档，score 为相似度
+     */
+    List<Document> similaritySearch(float[] embedding, Collection<String> ragTags, int topK, double similarityThreshold);
+
+    /**
+     * 在指定知识库中做全文检索（按 ts_rank_cd 排序）
+     * 对应 SQL: SELECT ... FROM vector_store WHERE knowledge = ANY(?) AND content_tsv @@ ? AND embedding <=> ? <= ?
+     * ORDER BY rank DESC LIMIT ?
+     * 用于补充向量检索容易漏掉的精确标识符（类名、方法名、错误码等）
+     *
+     * @param query               用户查询原文
+     * @param embedding           查询向量
+     * @param ragTags             知识库标签
+     * @param topK                最多返回条数
+     * @param similarityThreshold 最低向量相似度（应远低于向量检索的阈值，只排除语义无关的命中；-1 不限制）
+     * @return 按相关度从高到低排列的文档，score 为 ts_rank_cd
+     */
+    List<Document> fullTextSearch(String query, float[] embedding, Collection<String> ragTags,
+                                  int topK, double similarityThreshold);
+
+    /**
+     * 批量保存已向量化的文档
+     * 对应 SQL: COPY vector_store (id, content, metadata, embedding) FROM STDIN
      *
-     * @param documents 文档列表
+     * @param documents  文档列表
+     * @param embeddings 与 documents 一一对应的向量
      * @return 保存成功的数量
      */
-    int batchSave(List<Document> documents);
+    int batchSave(List<Document> documents, List<float[]> embeddings);
 
     /**
      * 清空所有向量数据（危险操作，谨慎使用）
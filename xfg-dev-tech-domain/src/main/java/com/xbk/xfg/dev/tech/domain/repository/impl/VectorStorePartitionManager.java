@@ -0,0 +1,240 @@
+package com.xbk.xfg.dev.tech.domain.repository.impl;
+
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * vector_store 分区管理
+ * 可选布局：vector_store 按 knowledge 做 LIST 分区，每个知识库一个分区
+ *
+ * <h2>为什么要分区？</h2>
+ * 所有知识库共用一张表和一个全局 HNSW 索引时：
+ * - 只检索一个知识库也要在包含全部知识库的图上搜索，再按 knowledge 过滤
+ * - 删除知识库是大批量 DELETE，会留下大量死元组
+ * 分区后每个分区有自己的 HNSW 索引（在父表上建索引，PostgreSQL 自动为每个分区创建），
+ * 检索时按 knowledge = ANY(?) 裁剪分区，删除知识库变成 DETACH + DROP 分区。
+ *
+ * <h2>分区键</h2>
+ * PostgreSQL 不允许用生成列做分区键，因此分区布局下 knowledge 是普通列，由 COPY 写入时显式给出；
+ * 没有标签的数据落入默认分区 vector_store_default。
+ *
+ * <h2>多实例</h2>
+ * 分区可能被其他实例删除，因此不在本地缓存"分区已存在"，每批写入前都执行 CREATE TABLE IF NOT EXISTS
+ * （分区存在时只查一次系统表，相比 COPY 可以忽略）。如果仍有数据因并发删除落入默认分区，
+ * 下次创建该分区时先把这些数据从默认分区移入新分区再挂载。
+ *
+ * <h2>注意</h2>
+ * 主键变为 (id, knowledge)，PgVectorStore 自带的 ON CONFLICT (id) 写入不再可用，
+ * 写入统一走 {@link VectorStoreRepositoryImpl#batchSave}。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class VectorStorePartitionManager {
+
+    private static final String PARTITION_PREFIX = "vector_store_p_";
+
+    private static final String DEFAULT_PARTITION = "vector_store_default";
+
+    private static final String LEGACY_TABLE = "vector_store_unpartitioned";
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * vector_store 当前是否为分区表
+     */
+    public boolean isPartitioned() {
+        String relkind = jdbcTemplate.query(
+                "SELECT relkind::text FROM pg_class WHERE oid = to_regclass('vector_store')",
+                rs -> rs.next() ? rs.getString(1) : null);
+        return "p".equals(relkind);
+    }
+
+    /**
+     * 把普通表转换为分区表（在一个事务中完成，失败整体回滚）
+     * 1. 原表改名为 vector_store_unpartitioned
+     * 2. 按原表的列类型创建分区父表和默认分区
+     * 3. 为原表中的每个知识库创建分区并复制数据
+     * 4. 删除原表，再在父表上创建主键和 HNSW 索引
+     */
+    public void convertToPartitioned() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                String metadataType = columnType(statement, "metadata");
+                String embeddingType = columnType(statement, "embedding");
+
+                statement.execute("ALTER TABLE vector_store RENAME TO " + LEGACY_TABLE);
+                statement.execute("CREATE TABLE vector_store (" +
+                        "id uuid NOT NULL DEFAULT gen_random_uuid(), " +
+                        "content text, " +
+                        "metadata " + metadataType + ", " +
+                        "embedding " + embeddingType + ", " +
+                        "knowledge text NOT NULL DEFAULT ''" +
+                        ") PARTITION BY LIST (knowledge)");
+                statement.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF vector_store DEFAULT");
+
+                List<String> tags = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery("SELECT DISTINCT metadata->>'knowledge' FROM " + LEGACY_TABLE +
+                        " WHERE metadata->>'knowledge' IS NOT NULL AND metadata->>'knowledge' <> ''")) {
+                    while (rs.next()) {
+                        tags.add(rs.getString(1));
+                    }
+                }
+                for (String tag : tags) {
+                    statement.execute(createPartitionSql(tag));
+                }
+
+                int rows = statement.executeUpdate("INSERT INTO vector_store (id, content, metadata, embedding, knowledge) " +
+                        "SELECT id, content, metadata, embedding, COALESCE(metadata->>'knowledge', '') FROM " + LEGACY_TABLE);
+                statement.execute("DROP TABLE " + LEGACY_TABLE);
+
+                statement.execute("ALTER TABLE vector_store ADD PRIMARY KEY (id, knowledge)");
+                statement.execute("CREATE INDEX spring_ai_vector_index ON vector_store USING HNSW (embedding vector_cosine_ops)");
+                connection.commit();
+                log.info("【Repository】vector_store 已转换为分区表: {} 个知识库, {} 条向量", tags.size(), rows);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 确保知识库的分区存在（不存在则创建，HNSW 索引由父表自动继承）
+     */
+    public void ensurePartition(String ragTag) {
+        if (ragTag == null || ragTag.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.execute(createPartitionSql(ragTag));
+        } catch (Exception e) {
+            // 并发创建同一个分区时，另一方可能已经创建成功
+            if (partitionExists(ragTag)) {
+                return;
+            }
+            // 默认分区中已有该标签的数据时无法直接创建分区，先把数据移出来
+            if (defaultPartitionContains(ragTag)) {
+                moveFromDefaultPartition(ragTag);
+                return;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 把默认分区中某个标签的数据移入新建的分区（在一个事务中完成）
+     * 1. 按父表结构创建独立的表
+     * 2. 从默认分区删除该标签的数据并插入新表
+     * 3. 把新表挂载为该标签的分区（索引、触发器由父表自动补齐）
+     */
+    private void moveFromDefaultPartition(String ragTag) {
+        String partition = partitionName(ragTag);
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE " + partition + " (LIKE vector_store INCLUDING DEFAULTS)");
+                int rows = statement.executeUpdate("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION +
+                        " WHERE knowledge = " + quoteLiteral(ragTag) + " RETURNING *) " +
+                        "INSERT INTO " + partition + " SELECT * FROM moved");
+                statement.execute("ALTER TABLE vector_store ATTACH PARTITION " + partition +
+                        " FOR VALUES IN (" + quoteLiteral(ragTag) + ")");
+                connection.commit();
+                log.warn("【Repository】知识库 '{}' 有 {} 条向量落入默认分区，已移入新分区 {}", ragTag, rows, partition);
+            } catch (Exception e) {
+                connection.rollback();
+                // 另一个实例可能同时完成了迁移
+                if (!partitionExists(ragTag)) {
+                    throw e;
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 删除知识库的分区：先 DETACH 再 DROP，不产生死元组
+     *
+     * @return 删除的行数，分区不存在时返回 -1
+     */
+    public int dropPartition(String ragTag) {
+        if (!partitionExists(ragTag)) {
+            return -1;
+        }
+        String partition = partitionName(ragTag);
+        Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition, Integer.class);
+        jdbcTemplate.execute("ALTER TABLE vector_store DETACH PARTITION " + partition);
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        return rows != null ? rows : 0;
+    }
+
+    private boolean partitionExists(String ragTag) {
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT to_regclass(?) IS NOT NULL", Boolean.class, partitionName(ragTag));
+        return Boolean.TRUE.equals(exists);
+    }
+
+    private boolean defaultPartitionContains(String ragTag) {
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE knowledge = ?)", Boolean.class, ragTag);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    private String createPartitionSql(String ragTag) {
+        return "CREATE TABLE IF NOT EXISTS " + partitionName(ragTag) +
+                " PARTITION OF vector_store FOR VALUES IN (" + quoteLiteral(ragTag) + ")";
+    }
+
+    /**
+     * 分区名：标签可能包含任意字符，用 SHA-256 前 16 位十六进制作为表名后缀
+     */
+    static String partitionName(String ragTag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(ragTag.getBytes(StandardCharsets.UTF_8));
+            return PARTITION_PREFIX + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支持 SHA-256", e);
+        }
+    }
+
+    /**
+     * DDL 不能绑定参数，标签作为字符串字面量拼接时转义单引号
+     */
+    private static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static String columnType(Statement statement, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT format_type(atttypid, atttypmod) FROM pg_attribute " +
+                "WHERE attrelid = 'vector_store'::regclass AND attname = '" + column + "'")) {
+            if (!rs.next()) {
+                throw new IllegalStateException("vector_store 缺少列: " + column);
+            }
+            return rs.getString(1);
+        }
+    }
+}
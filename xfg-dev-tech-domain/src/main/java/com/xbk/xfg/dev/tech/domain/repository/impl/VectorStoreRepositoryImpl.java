@@ -1,13 +1,36 @@
 package com.xbk.xfg.dev.tech.domain.repository.impl;
 
+import com.alibaba.fastjson.JSON;
 import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Repository;
 
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 向量存储仓储实现
@@ -24,6 +47,24 @@ import java.util.List;
  * - 删除：DELETE_XXX
  * - 插入：INSERT_XXX
  * - 统计：COUNT_XXX
+ * - 批量写入：COPY_XXX
+ *
+ * <h2>knowledge 列</h2>
+ * 知识库标签原本只存在 metadata JSON 中，按标签过滤需要逐行解析 JSON。
+ * 启动后在后台线程中在线补齐由 metadata->>'knowledge' 派生的 knowledge 列和 B-tree 索引（见 {@link VectorStoreSchemaMigrator}），
+ * 所有按标签的 SQL 都使用该列。
+ * 回填完成之前该列对旧数据为空：SQL 中的 {knowledge} 占位符此时替换为 metadata->>'knowledge'，
+ * 否则检索和标签列表会漏掉旧数据，按标签删除也删不掉它们（回填后被删除的知识库又会出现）。
+ * 后台线程定期检查回填标记，本实例或其他实例完成回填后自动切换到 knowledge 列。
+ *
+ * <h2>全文检索列</h2>
+ * content_tsv 是由 content 生成的 tsvector 列（'simple' 配置，不做词干化，类名、错误码保持原样），
+ * 配合 GIN 索引供 {@link #fullTextSearch} 使用，写入路径不需要改动。
+ * 回填完成之前 {content_tsv} 占位符替换为 to_tsvector 表达式（逐行计算，较慢但结果完整）。
+ *
+ * <h2>分区布局（可选）</h2>
+ * rag.vector-store.partitioned=true 时 vector_store 按 knowledge 做 LIST 分区（见 {@link VectorStorePartitionManager}）：
+ * 写入前确保分区存在，删除知识库直接 DROP 分区，检索的 knowledge = ANY(?) 只扫描选中知识库的分区。
  *
  * @author xiexu
  */
@@ -34,32 +75,66 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
     @Resource
     private JdbcTemplate jdbcTemplate;
 
+    @Resource
+    private VectorStorePartitionManager partitionManager;
+
+    @Resource
+    private VectorStoreSchemaMigrator schemaMigrator;
+
     // ==================== SQL 常量定义 ====================
 
+    /**
+     * 知识库标签占位符：回填完成后为 knowledge 列，之前为 metadata->>'knowledge'
+     */
+    private static final String KNOWLEDGE = "{knowledge}";
+
+    /**
+     * 全文检索向量占位符：回填完成后为 content_tsv 列，之前为 to_tsvector 表达式
+     */
+    private static final String CONTENT_TSV = "{content_tsv}";
+
+    // ==================== 业务 SQL ====================
+
     /**
      * 根据知识库标签删除向量数据
-     * JSONB 操作符说明：
-     * - ->  : 获取 JSON 对象字段（返回 JSONB）
-     * - ->> : 获取 JSON 对象字段（返回 TEXT）
      */
     private static final String DELETE_BY_RAG_TAG =
-            "DELETE FROM vector_store WHERE metadata->>'knowledge' = ?";
+            "DELETE FROM vector_store WHERE " + KNOWLEDGE + " = ?";
+
+    /**
+     * 根据知识库标签 + 来源路径删除向量数据
+     * = ANY(?) 接收一个 text[] 参数，一条 SQL 删除多个文件
+     * 先用 knowledge 索引缩小范围，再按 metadata->>'source_path' 过滤
+     */
+    private static final String DELETE_BY_RAG_TAG_AND_SOURCE_PATHS =
+            "DELETE FROM vector_store WHERE " + KNOWLEDGE + " = ? AND metadata->>'source_path' = ANY(?)";
 
     /**
      * 根据知识库标签统计向量数量
      */
     private static final String COUNT_BY_RAG_TAG =
-            "SELECT COUNT(*) FROM vector_store WHERE metadata->>'knowledge' = ?";
+            "SELECT COUNT(*) FROM vector_store WHERE " + KNOWLEDGE + " = ?";
 
     /**
      * 查询所有不重复的知识库标签
-     * DISTINCT 去重
+     * 递归 CTE 实现"跳跃扫描"：每次在索引中找比上一个标签大的最小标签，
+     * 扫描次数等于标签数，而不是表的行数
      */
     private static final String SELECT_ALL_RAG_TAGS =
-            "SELECT DISTINCT metadata->>'knowledge' AS rag_tag " +
-            "FROM vector_store " +
-            "WHERE metadata->>'knowledge' IS NOT NULL " +
-            "ORDER BY rag_tag";
+            "WITH RECURSIVE tags AS (" +
+            "  (SELECT knowledge FROM vector_store WHERE knowledge > '' ORDER BY knowledge LIMIT 1)" +
+            "  UNION ALL" +
+            "  SELECT (SELECT v.knowledge FROM vector_store v WHERE v.knowledge > t.knowledge ORDER BY v.knowledge LIMIT 1)" +
+            "  FROM tags t WHERE t.knowledge IS NOT NULL" +
+            ") " +
+            "SELECT knowledge AS rag_tag FROM tags WHERE knowledge IS NOT NULL";
+
+    /**
+     * knowledge 列回填完成之前查询所有标签（全表扫描）
+     */
+    private static final String SELECT_ALL_RAG_TAGS_FROM_METADATA =
+            "SELECT DISTINCT metadata->>'knowledge' AS rag_tag FROM vector_store " +
+            "WHERE metadata->>'knowledge' > '' ORDER BY rag_tag";
 
     /**
      * 根据知识库标签查询所有文档（不含向量）
@@ -68,7 +143,72 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
     private static final String SELECT_DOCUMENTS_BY_RAG_TAG =
             "SELECT id, content, metadata " +
             "FROM vector_store " +
-            "WHERE metadata->>'knowledge' = ?";
+            "WHERE " + KNOWLEDGE + " = ?";
+
+    /**
+     * 在指定知识库中做相似度检索（余弦距离）
+     * <=> 为 pgvector 的余弦距离操作符，相似度 = 1 - 距离
+     * knowledge = ANY(?) 走 B-tree 索引，替代 PgVectorStore 的 JSONPath 过滤
+     */
+    private static final String SELECT_SIMILAR_BY_RAG_TAGS =
+            "SELECT id, content, metadata, embedding <=> ?::vector AS distance " +
+            "FROM vector_store " +
+            "WHERE " + KNOWLEDGE + " = ANY(?) AND embedding <=> ?::vector <= ? " +
+            "ORDER BY distance " +
+            "LIMIT ?";
+
+    /**
+     * 在指定知识库中做全文检索
+     * 查询词之间是 AND 关系（由 {@link #toTsQuery} 生成），ts_rank_cd 按覆盖密度打分；
+     * 同时要求与查询向量的相似度不低于调用方给出的下限（远低于向量检索的阈值），只排除语义上毫不相关的切块
+     */
+    private static final String SELECT_FULL_TEXT_BY_RAG_TAGS =
+            "SELECT id, content, metadata, ts_rank_cd(" + CONTENT_TSV + ", q) AS rank, embedding <=> ?::vector AS distance " +
+            "FROM vector_store, to_tsquery('simple', ?) q " +
+            "WHERE " + KNOWLEDGE + " = ANY(?) AND " + CONTENT_TSV + " @@ q AND embedding <=> ?::vector <= ? " +
+            "ORDER BY rank DESC " +
+            "LIMIT ?";
+
+    /**
+     * 查询词：字母和数字的连续序列（与 PostgreSQL 默认解析器的切分方式一致）
+     * 不含中日韩文字：'simple' 配置不分词，一段中文在索引中是一个整体词元，拆出来的查询词无法命中，
+     * 中文语义由向量检索负责，全文检索只匹配其中夹带的标识符（类名、方法名、错误码）
+     */
+    private static final Pattern QUERY_TERM =
+            Pattern.compile("[[\\p{L}\\p{N}]&&[^\\p{IsHan}\\p{IsHiragana}\\p{IsKatakana}\\p{IsHangul}]]+");
+
+    /**
+     * 一次全文检索最多使用的查询词数（AND 关系，词越多越难命中）
+     */
+    private static final int MAX_QUERY_TERMS = 8;
+
+    /**
+     * 英文停用词：'simple' 配置不去停用词，"how / the / is" 几乎命中所有切块
+     */
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "can", "do", "does", "for", "from", "how",
+            "i", "if", "in", "into", "is", "it", "its", "me", "my", "no", "not", "of", "on", "or", "should",
+            "so", "that", "the", "their", "then", "there", "these", "this", "to", "use", "used", "using", "was",
+            "we", "what", "when", "where", "which", "who", "why", "will", "with", "would", "you", "your");
+
+    /**
+     * 批量写入（COPY 文本格式）
+     * COPY 走 PostgreSQL 的流式协议，没有逐行解析 SQL 和绑定参数的开销，
+     * 大批量导入比多行 INSERT 快得多
+     */
+    private static final String COPY_INTO_VECTOR_STORE =
+            "COPY vector_store (id, content, metadata, embedding) FROM STDIN";
+
+    /**
+     * 分区布局下 knowledge 是分区键（普通列），COPY 时显式写入
+     */
+    private static final String COPY_INTO_PARTITIONED_VECTOR_STORE =
+            "COPY vector_store (id, content, metadata, embedding, knowledge) FROM STDIN";
+
+    /**
+     * COPY 缓冲区大小，攒够后写入一次连接
+     */
+    private static final int COPY_BUFFER_CHARS = 256 * 1024;
 
     /**
      * 清空表（危险操作）
@@ -82,12 +222,135 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
     private static final String COUNT_ALL =
             "SELECT COUNT(*) FROM vector_store";
 
+    /**
+     * 是否在启动时执行表结构迁移（幂等，已存在则跳过）
+     */
+    @Value("${rag.vector-store.migrate-schema:true}")
+    private boolean migrateSchema;
+
+    /**
+     * 是否使用按知识库分区的表布局；开启后首次启动会把现有表转换为分区表
+     */
+    @Value("${rag.vector-store.partitioned:false}")
+    private boolean partitioned;
+
+    /**
+     * 迁移未完成时后台重试 / 检查回填标记的间隔
+     */
+    @Value("${rag.vector-store.migration-retry-seconds:30}")
+    private long migrationRetrySeconds;
+
+    /**
+     * 当前表的实际布局，启动时检测
+     */
+    private volatile boolean partitionedLayout;
+
+    /**
+     * knowledge 列是否已回填完成（分区布局下由 COPY 写入，始终可用）
+     */
+    private volatile boolean knowledgeReady;
+
+    /**
+     * content_tsv 列是否已回填完成
+     */
+    private volatile boolean contentTsvReady;
+
+    /**
+     * 后台执行迁移、检查回填标记的线程，全部就绪后关闭
+     */
+    private ScheduledExecutorService migrationExecutor;
+
     // ==================== 实现方法 ====================
 
+    /**
+     * 启动时按配置把表转换为分区表（转换会在一个事务中复制整张表，大表请在低峰期开启），
+     * knowledge / content_tsv 派生列的回填和建索引在后台线程中执行（不锁表，见 {@link VectorStoreSchemaMigrator}），
+     * 完成之前查询使用 metadata 表达式
+     */
+    @PostConstruct
+    public void migrateSchema() {
+        try {
+            partitionedLayout = partitionManager.isPartitioned();
+        } catch (Exception e) {
+            log.warn("【Repository】检测 vector_store 表布局失败: {}", e.getMessage());
+        }
+        if (migrateSchema && partitioned && !partitionedLayout) {
+            try {
+                partitionManager.convertToPartitioned();
+                partitionedLayout = true;
+            } catch (Exception e) {
+                log.warn("【Repository】vector_store 转换为分区表失败: {}", e.getMessage());
+            }
+        }
+        refreshDerivedColumns();
+        if (knowledgeReady && contentTsvReady) {
+            return;
+        }
+
+        migrationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vector-store-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 没有拿到迁移锁（其他实例在迁移）或迁移失败（如等待锁超时）时，到下一轮再检查标记、再重试
+        migrationExecutor.scheduleWithFixedDelay(this::migrateInBackground,
+                0, Math.max(1, migrationRetrySeconds), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (migrationExecutor != null) {
+            migrationExecutor.shutdownNow();
+        }
+    }
+
+    private void migrateInBackground() {
+        try {
+            if (migrateSchema) {
+                schemaMigrator.migrate(partitionedLayout);
+            }
+        } catch (Exception e) {
+            log.warn("【Repository】vector_store 表结构迁移失败，{} 秒后重试: {}", migrationRetrySeconds, e.getMessage());
+        }
+        refreshDerivedColumns();
+        if (knowledgeReady && contentTsvReady) {
+            log.info("【Repository】knowledge / content_tsv 列回填完成，查询切换到派生列");
+            migrationExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 检查派生列的回填标记
+     */
+    private void refreshDerivedColumns() {
+        try {
+            knowledgeReady = partitionedLayout || schemaMigrator.isBackfilled("knowledge");
+            contentTsvReady = schemaMigrator.isBackfilled("content_tsv");
+        } catch (Exception e) {
+            log.warn("【Repository】检查 vector_store 派生列失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 按派生列的回填状态替换 SQL 中的占位符
+     */
+    private String sql(String template) {
+        return template
+                .replace(KNOWLEDGE, knowledgeReady ? "knowledge" : "metadata->>'knowledge'")
+                .replace(CONTENT_TSV, contentTsvReady ? "content_tsv" : "to_tsvector('simple', coalesce(content, ''))");
+    }
+
     @Override
     public int deleteByRagTag(String ragTag) {
         try {
-            int deletedRows = jdbcTemplate.update(DELETE_BY_RAG_TAG, ragTag);
+            if (partitionedLayout) {
+                int droppedRows = partitionManager.dropPartition(ragTag);
+                if (droppedRows >= 0) {
+                    log.info("【Repository】删除知识库 '{}' 的分区，共 {} 条", ragTag, droppedRows);
+                    return droppedRows;
+                }
+            }
+            int deletedRows = jdbcTemplate.update(sql(DELETE_BY_RAG_TAG), ragTag);
             log.info("【Repository】删除知识库 '{}' 的向量数据，共 {} 条", ragTag, deletedRows);
             return deletedRows;
         } catch (Exception e) {
@@ -96,10 +359,30 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
         }
     }
 
+    @Override
+    public int deleteByRagTagAndSourcePaths(String ragTag, Collection<String> sourcePaths) {
+        if (sourcePaths == null || sourcePaths.isEmpty()) {
+            return 0;
+        }
+        try {
+            int deletedRows = jdbcTemplate.update(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql(DELETE_BY_RAG_TAG_AND_SOURCE_PATHS));
+                ps.setString(1, ragTag);
+                ps.setArray(2, connection.createArrayOf("text", sourcePaths.toArray()));
+                return ps;
+            });
+            log.info("【Repository】删除知识库 '{}' 中 {} 个文件的向量数据，共 {} 条", ragTag, sourcePaths.size(), deletedRows);
+            return deletedRows;
+        } catch (Exception e) {
+            log.error("【Repository】删除知识库 '{}' 的文件向量失败", ragTag, e);
+            throw new RuntimeException("删除向量数据失败: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public long countByRagTag(String ragTag) {
         try {
-            return jdbcTemplate.queryForObject(COUNT_BY_RAG_TAG, Long.class, ragTag);
+            return jdbcTemplate.queryForObject(sql(COUNT_BY_RAG_TAG), Long.class, ragTag);
         } catch (Exception e) {
             log.error("【Repository】统计知识库 '{}' 向量数量失败", ragTag, e);
             return 0L;
@@ -109,7 +392,8 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
     @Override
     public List<String> findAllRagTags() {
         try {
-            List<String> ragTags = jdbcTemplate.queryForList(SELECT_ALL_RAG_TAGS, String.class);
+            List<String> ragTags = jdbcTemplate.queryForList(
+                    knowledgeReady ? SELECT_ALL_RAG_TAGS : SELECT_ALL_RAG_TAGS_FROM_METADATA, String.class);
             log.info("【Repository】查询到 {} 个知识库标签", ragTags.size());
             return ragTags;
         } catch (Exception e) {
@@ -130,10 +414,213 @@ public class VectorStoreRepositoryImpl implements VectorStoreRepository {
     }
 
     @Override
-    public int batchSave(List<Document> documents) {
-        // TODO: 如果需要实现，建议使用 PgVectorStore.accept() 方法
-        // 因为它会自动处理向量化（Embedding）
-        throw new UnsupportedOperationException("请使用 PgVectorStore.accept() 保存文档");
+    public List<Document> similaritySearch(float[] embedding, Collection<String> ragTags, int topK, double similarityThreshold) {
+        if (ragTags == null || ragTags.isEmpty()) {
+            return List.of();
+        }
+        String vector = toVectorLiteral(embedding);
+        try {
+            return jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql(SELECT_SIMILAR_BY_RAG_TAGS));
+                ps.setString(1, vector);
+                ps.setArray(2, connection.createArrayOf("text", ragTags.toArray()));
+                ps.setString(3, vector);
+                ps.setDouble(4, 1 - similarityThreshold);
+                ps.setInt(5, topK);
+                return ps;
+            }, (rs, rowNum) -> {
+                Map<String, Object> metadata = new HashMap<>();
+                String json = rs.getString("metadata");
+                if (json != null) {
+                    metadata.putAll(JSON.parseObject(json));
+                }
+                double distance = rs.getDouble("distance");
+                metadata.put("distance", distance);
+                return Document.builder()
+                        .id(rs.getString("id"))
+                        .text(rs.getString("content"))
+                        .metadata(metadata)
+                        .score(1 - distance)
+                        .build();
+            });
+        } catch (Exception e) {
+            log.error("【Repository】知识库 {} 相似度检索失败", ragTags, e);
+            throw new RuntimeException("相似度检索失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Document> fullTextSearch(String query, float[] embedding, Collection<String> ragTags,
+                                         int topK, double similarityThreshold) {
+        String tsQuery = toTsQuery(query);
+        if (tsQuery == null || ragTags == null || ragTags.isEmpty()) {
+            return List.of();
+        }
+        String vector = toVectorLiteral(embedding);
+        try {
+            return jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql(SELECT_FULL_TEXT_BY_RAG_TAGS));
+                ps.setString(1, vector);
+                ps.setString(2, tsQuery);
+                ps.setArray(3, connection.createArrayOf("text", ragTags.toArray()));
+                ps.setString(4, vector);
+                ps.setDouble(5, 1 - similarityThreshold);
+                ps.setInt(6, topK);
+                return ps;
+            }, (rs, rowNum) -> {
+                Map<String, Object> metadata = new HashMap<>();
+                String json = rs.getString("metadata");
+                if (json != null) {
+                    metadata.putAll(JSON.parseObject(json));
+                }
+                metadata.put("distance", rs.getDouble("distance"));
+                return Document.builder()
+                        .id(rs.getString("id"))
+                        .text(rs.getString("content"))
+                        .metadata(metadata)
+                        .score(rs.getDouble("rank"))
+                        .build();
+            });
+        } catch (Exception e) {
+            log.error("【Repository】知识库 {} 全文检索失败", ragTags, e);
+            throw new RuntimeException("全文检索失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把用户查询转换为 to_tsquery 语法：term1 & term2 & ...（与 plainto_tsquery 相同的 AND 语义）
+     * 只保留字母和数字，不会出现 tsquery 运算符，无需再转义；去掉停用词和单个字符
+     *
+     * @return 没有可用查询词时返回 null（例如纯中文问题），此时跳过全文检索
+     */
+    public static String toTsQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        Matcher matcher = QUERY_TERM.matcher(query.toLowerCase(Locale.ROOT));
+        while (matcher.find() && terms.size() < MAX_QUERY_TERMS) {
+            String term = matcher.group();
+            if (term.length() > 1 && !STOPWORDS.contains(term)) {
+                terms.add(term);
+            }
+        }
+        return terms.isEmpty() ? null : String.join(" & ", terms);
+    }
+
+    @Override
+    public int batchSave(List<Document> documents, List<float[]> embeddings) {
+        if (documents == null || documents.isEmpty()) {
+            return 0;
+        }
+        if (embeddings == null || embeddings.size() != documents.size()) {
+            throw new IllegalArgumentException("文档与向量数量不一致");
+        }
+
+        boolean withKnowledge = partitionedLayout;
+        if (withKnowledge) {
+            // 新知识库的分区需要在 COPY 之前创建，否则数据会落入默认分区
+            documents.stream().map(this::knowledgeOf).distinct().forEach(partitionManager::ensurePartition);
+        }
+
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            String copySql = withKnowledge ? COPY_INTO_PARTITIONED_VECTOR_STORE : COPY_INTO_VECTOR_STORE;
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql);
+            try {
+                StringBuilder buffer = new StringBuilder(COPY_BUFFER_CHARS + 8192);
+                for (int i = 0; i < documents.size(); i++) {
+                    appendCopyRow(buffer, documents.get(i), embeddings.get(i), withKnowledge);
+                    if (buffer.length() >= COPY_BUFFER_CHARS) {
+                        writeCopy(copyIn, buffer);
+                    }
+                }
+                writeCopy(copyIn, buffer);
+                long rows = copyIn.endCopy();
+                log.debug("【Repository】COPY 写入 {} 条向量", rows);
+                return (int) rows;
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        } catch (Exception e) {
+            log.error("【Repository】COPY 批量写入失败", e);
+            throw new RuntimeException("批量写入向量数据失败: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * 按 COPY 文本格式追加一行：列之间用 Tab 分隔，行以换行结束
+     */
+    private void appendCopyRow(StringBuilder buffer, Document document, float[] embedding, boolean withKnowledge) {
+        buffer.append(document.getId()).append('\t');
+        appendCopyText(buffer, document.getText() != null ? document.getText() : "");
+        buffer.append('\t');
+        appendCopyText(buffer, JSON.toJSONString(document.getMetadata()));
+        buffer.append('\t');
+        appendVector(buffer, embedding);
+        if (withKnowledge) {
+            buffer.append('\t');
+            appendCopyText(buffer, knowledgeOf(document));
+        }
+        buffer.append('\n');
+    }
+
+    private String knowledgeOf(Document document) {
+        Object knowledge = document.getMetadata().get("knowledge");
+        return knowledge != null ? knowledge.toString() : "";
+    }
+
+    /**
+     * pgvector 文本格式：[0.1,0.2,...]
+     */
+    private void appendVector(StringBuilder buffer, float[] embedding) {
+        buffer.append('[');
+        for (int i = 0; i < embedding.length; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            buffer.append(embedding[i]);
+        }
+        buffer.append(']');
+    }
+
+    private String toVectorLiteral(float[] embedding) {
+        StringBuilder buffer = new StringBuilder(embedding.length * 12);
+        appendVector(buffer, embedding);
+        return buffer.toString();
+    }
+
+    /**
+     * COPY 文本格式转义：反斜杠、Tab、换行、回车需要转义
+     */
+    private void appendCopyText(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> buffer.append("\\\\");
+                case '\t' -> buffer.append("\\t");
+                case '\n' -> buffer.append("\\n");
+                case '\r' -> buffer.append("\\r");
+                // PostgreSQL 文本不允许 NUL 字符
+                case '\0' -> {
+                }
+                default -> buffer.append(c);
+            }
+        }
+    }
+
+    private void writeCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() == 0) {
+            return;
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
     }
 
     @Override
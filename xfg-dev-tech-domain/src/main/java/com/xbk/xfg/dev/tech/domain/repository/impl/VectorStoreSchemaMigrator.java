@@ -0,0 +1,275 @@
+package com.xbk.xfg.dev.tech.domain.repository.impl;
+
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * vector_store 在线表结构迁移：补齐 knowledge / content_tsv 派生列及其索引
+ *
+ * <h2>为什么不用生成列？</h2>
+ * ADD COLUMN ... GENERATED ALWAYS AS ... STORED 会在 ACCESS EXCLUSIVE 锁下重写整张表，
+ * 大表上意味着迁移期间所有读写（包括检索）都被阻塞。
+ *
+ * <h2>做法</h2>
+ * 1. 以可空普通列加入（只改元数据，瞬间完成；lock_timeout 防止排在长事务后面阻塞其他请求）
+ * 2. BEFORE INSERT/UPDATE 触发器在写入时计算派生列，COPY / PgVectorStore 写入都不需要改动
+ * 3. 按主键分批回填已有数据，每批单独提交，不长时间持有行锁
+ * 4. CREATE INDEX CONCURRENTLY 建索引，不阻塞写入（分区表不支持 CONCURRENTLY，使用普通 CREATE INDEX）
+ * 回填完成后在列注释中记录标记，之后启动只做元数据检查，不再扫描表。
+ * 迁移由 {@link VectorStoreRepositoryImpl} 在后台线程中执行，不阻塞启动；
+ * 在 {@link #isBackfilled} 返回 true 之前，查询改用 metadata 表达式，不会漏掉尚未回填的行。
+ *
+ * <h2>多实例</h2>
+ * 整个迁移在 PostgreSQL 会话级 advisory lock 下执行，同时启动的多个实例只有一个执行，
+ * 其余本次跳过，由后台线程稍后检查回填标记并重试。
+ *
+ * <h2>兼容</h2>
+ * 已经以生成列存在的列（旧版本迁移创建）保持不变，不加入触发器也不回填。
+ * 分区布局下 knowledge 是分区键，由 COPY 显式写入，同样不由触发器计算。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class VectorStoreSchemaMigrator {
+
+    /**
+     * advisory lock 的键（任意固定值，只用于本迁移）
+     */
+    private static final long MIGRATION_LOCK_KEY = 20_250_011L;
+
+    /**
+     * 回填完成标记，写在列注释中
+     */
+    private static final String BACKFILLED_MARKER = "derived column backfilled";
+
+    private static final String TRIGGER_NAME = "vector_store_derive_columns_trg";
+
+    private static final String TRIGGER_FUNCTION = "vector_store_derive_columns";
+
+    /**
+     * 派生列
+     *
+     * @param name       列名
+     * @param type       列类型
+     * @param expression 由 NEW 行计算的表达式（触发器中使用，回填时去掉 NEW.）
+     * @param indexName  索引名
+     * @param index      索引定义（ON vector_store 之后的部分）
+     */
+    private record DerivedColumn(String name, String type, String expression, String indexName, String index) {
+    }
+
+    private static final List<DerivedColumn> DERIVED_COLUMNS = List.of(
+            // 知识库标签原本只存在 metadata JSON 中，物化后按标签过滤走 B-tree 索引
+            new DerivedColumn("knowledge", "text", "NEW.metadata->>'knowledge'",
+                    "vector_store_knowledge_idx", "(knowledge)"),
+            // 'simple' 配置：只转小写不做词干和停用词处理，适合代码标识符
+            new DerivedColumn("content_tsv", "tsvector", "to_tsvector('simple', coalesce(NEW.content, ''))",
+                    "vector_store_content_tsv_idx", "USING GIN (content_tsv)"));
+
+    /**
+     * 每批回填的行数
+     */
+    @Value("${rag.vector-store.backfill-batch-size:5000}")
+    private int backfillBatchSize;
+
+    /**
+     * DDL 等待锁的最长时间，超时则本次启动放弃迁移，下次启动重试
+     */
+    @Value("${rag.vector-store.migration-lock-timeout-seconds:5}")
+    private int lockTimeoutSeconds;
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 派生列是否已可用于查询：生成列，或回填完成（列注释中有标记）
+     * 之后的写入由触发器维护，不会再出现空值
+     *
+     * @param column knowledge / content_tsv
+     */
+    public boolean isBackfilled(String column) {
+        Boolean backfilled = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                return isGenerated(statement, column) || BACKFILLED_MARKER.equals(columnComment(statement, column));
+            }
+        });
+        return Boolean.TRUE.equals(backfilled);
+    }
+
+    /**
+     * 执行迁移（幂等）
+     *
+     * @param partitioned vector_store 是否为分区表
+     * @return 是否执行了迁移；其他实例持有迁移锁时返回 false
+     */
+    public boolean migrate(boolean partitioned) {
+        Boolean migrated = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            // CREATE INDEX CONCURRENTLY 不能在事务中执行，回填每批也要单独提交
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                if (!tryLock(statement)) {
+                    log.info("【Repository】其他实例正在迁移 vector_store 表结构，本实例稍后重试");
+                    return false;
+                }
+                try {
+                    statement.execute("SET lock_timeout = '" + Math.max(1, lockTimeoutSeconds) + "s'");
+                    migrate(connection, statement, partitioned);
+                } finally {
+                    statement.execute("RESET lock_timeout");
+                    statement.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return true;
+        });
+        return Boolean.TRUE.equals(migrated);
+    }
+
+    private void migrate(Connection connection, Statement statement, boolean partitioned) throws SQLException {
+        // 1. 加列（可空、无默认值，只改元数据）
+        for (DerivedColumn column : DERIVED_COLUMNS) {
+            statement.execute("ALTER TABLE vector_store ADD COLUMN IF NOT EXISTS " + column.name() + " " + column.type());
+        }
+
+        // 2. 触发器：只计算普通列，生成列由 PostgreSQL 计算，分区键由 COPY 写入
+        List<DerivedColumn> maintained = new ArrayList<>();
+        for (DerivedColumn column : DERIVED_COLUMNS) {
+            boolean partitionKey = partitioned && "knowledge".equals(column.name());
+            if (!partitionKey && !isGenerated(statement, column.name())) {
+                maintained.add(column);
+            }
+        }
+        if (!maintained.isEmpty()) {
+            installTrigger(statement, maintained);
+        }
+
+        // 3. 回填
+        for (DerivedColumn column : maintained) {
+            if (!BACKFILLED_MARKER.equals(columnComment(statement, column.name()))) {
+                backfill(connection, column);
+                statement.execute("COMMENT ON COLUMN vector_store." + column.name() + " IS '" + BACKFILLED_MARKER + "'");
+            }
+        }
+
+        // 4. 索引
+        for (DerivedColumn column : DERIVED_COLUMNS) {
+            createIndex(statement, column, partitioned);
+        }
+        log.info("【Repository】vector_store.knowledge / content_tsv 列及索引已就绪");
+    }
+
+    private void installTrigger(Statement statement, List<DerivedColumn> columns) throws SQLException {
+        StringBuilder body = new StringBuilder();
+        for (DerivedColumn column : columns) {
+            body.append("NEW.").append(column.name()).append(" := ").append(column.expression()).append("; ");
+        }
+        statement.execute("CREATE OR REPLACE FUNCTION " + TRIGGER_FUNCTION + "() RETURNS trigger LANGUAGE plpgsql AS $$ " +
+                "BEGIN " + body + "RETURN NEW; END $$");
+        try (ResultSet rs = statement.executeQuery("SELECT 1 FROM pg_trigger " +
+                "WHERE tgrelid = 'vector_store'::regclass AND tgname = '" + TRIGGER_NAME + "'")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        statement.execute("CREATE TRIGGER " + TRIGGER_NAME + " BEFORE INSERT OR UPDATE OF content, metadata " +
+                "ON vector_store FOR EACH ROW EXECUTE FUNCTION " + TRIGGER_FUNCTION + "()");
+    }
+
+    /**
+     * 按主键顺序分批回填，每批一个事务；触发器已安装，回填期间的新写入不会遗漏
+     */
+    private void backfill(Connection connection, DerivedColumn column) throws SQLException {
+        String expression = column.expression().replace("NEW.", "");
+        String nextBoundary = "SELECT max(id) FROM (SELECT id FROM vector_store WHERE id > ? ORDER BY id LIMIT ?) t";
+        String firstBoundary = "SELECT max(id) FROM (SELECT id FROM vector_store ORDER BY id LIMIT ?) t";
+        String update = "UPDATE vector_store SET " + column.name() + " = " + expression +
+                " WHERE id > ? AND id <= ? AND " + column.name() + " IS DISTINCT FROM " + expression;
+        String updateFirst = "UPDATE vector_store SET " + column.name() + " = " + expression +
+                " WHERE id <= ? AND " + column.name() + " IS DISTINCT FROM " + expression;
+
+        int batchSize = Math.max(100, backfillBatchSize);
+        Object lower = null;
+        long updated = 0;
+        long start = System.currentTimeMillis();
+        while (true) {
+            Object upper;
+            try (PreparedStatement ps = connection.prepareStatement(lower == null ? firstBoundary : nextBoundary)) {
+                if (lower == null) {
+                    ps.setInt(1, batchSize);
+                } else {
+                    ps.setObject(1, lower);
+                    ps.setInt(2, batchSize);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    upper = rs.next() ? rs.getObject(1) : null;
+                }
+            }
+            if (upper == null) {
+                break;
+            }
+            try (PreparedStatement ps = connection.prepareStatement(lower == null ? updateFirst : update)) {
+                if (lower == null) {
+                    ps.setObject(1, upper);
+                } else {
+                    ps.setObject(1, lower);
+                    ps.setObject(2, upper);
+                }
+                updated += ps.executeUpdate();
+            }
+            lower = upper;
+        }
+        log.info("【Repository】回填 vector_store.{} 完成: {} 行, 耗时 {} ms",
+                column.name(), updated, System.currentTimeMillis() - start);
+    }
+
+    private void createIndex(Statement statement, DerivedColumn column, boolean partitioned) throws SQLException {
+        // 上次 CONCURRENTLY 建索引中断会留下无效索引，IF NOT EXISTS 会把它当作已存在
+        try (ResultSet rs = statement.executeQuery("SELECT i.indisvalid FROM pg_index i " +
+                "WHERE i.indexrelid = to_regclass('" + column.indexName() + "')")) {
+            if (rs.next()) {
+                if (rs.getBoolean(1)) {
+                    return;
+                }
+                log.warn("【Repository】索引 {} 无效（上次创建中断），重新创建", column.indexName());
+                statement.execute("DROP INDEX " + (partitioned ? "" : "CONCURRENTLY ") + column.indexName());
+            }
+        }
+        statement.execute("CREATE INDEX " + (partitioned ? "" : "CONCURRENTLY ") + "IF NOT EXISTS "
+                + column.indexName() + " ON vector_store " + column.index());
+    }
+
+    private static boolean tryLock(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT pg_try_advisory_lock(" + MIGRATION_LOCK_KEY + ")")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static boolean isGenerated(Statement statement, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT attgenerated <> '' FROM pg_attribute " +
+                "WHERE attrelid = 'vector_store'::regclass AND attname = '" + column + "'")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static String columnComment(Statement statement, String column) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT col_description('vector_store'::regclass, attnum) " +
+                "FROM pg_attribute WHERE attrelid = 'vector_store'::regclass AND attname = '" + column + "'")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.xbk.xfg.dev.tech.domain.retrieval;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * RAG 上下文打包
+ * 按 Token 预算把检索结果装进提示词
+ *
+ * <h2>为什么需要？</h2>
+ * 原实现把前 5 条文档直接用换行拼接：切块大时提示词 Token 暴涨，首字延迟和费用都上升；
+ * 切块小时 5 条又装不满上下文，浪费了可用的参考信息。
+ *
+ * <h2>打包规则</h2>
+ * 1. 检索时多取一些候选（fetch-k），由预算决定最终放入几条
+ * 2. 去重：内容相同、互相包含或高度重叠（字符 shingle Jaccard ≥ dedup-threshold）的切块只保留排名靠前的一条
+ * 3. 按相关度从高到低依次放入，放不下的跳过，继续尝试后面更短的切块
+ * 4. 排名第一的切块本身超出预算时按 Token 截断，保证至少有一条参考
+ *
+ * <h2>Token 计数</h2>
+ * 与 TokenTextSplitter 相同的 jtokkit CL100K_BASE 编码，切块大小与预算使用同一把尺子。
+ * 预算按模型配置（model-budgets），未配置的模型使用 token-budget。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class ContextPacker {
+
+    /**
+     * 文档之间的分隔符
+     */
+    public static final String SEPARATOR = "\n\n---\n\n";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * 计算重叠度使用的字符 shingle 长度（中英文都适用，不依赖分词）
+     */
+    private static final int SHINGLE_CHARS = 8;
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final int separatorTokens = encoding.countTokensOrdinary(SEPARATOR);
+
+    /**
+     * 检索候选数量（过取），最终放入几条由预算决定
+     */
+    @Value("${rag.context.fetch-k:12}")
+    private int fetchK;
+
+    /**
+     * 默认上下文 Token 预算
+     */
+    @Value("${rag.context.token-budget:3000}")
+    private int defaultTokenBudget;
+
+    /**
+     * 按模型配置的 Token 预算，例如 {'gpt-4o': 8000, 'qwen-plus': 4000}
+     */
+    @Value("#{${rag.context.model-budgets:{:}}}")
+    private Map<String, Integer> modelBudgets;
+
+    /**
+     * 两个切块的 shingle Jaccard 相似度达到该值视为重复
+     */
+    @Value("${rag.context.dedup-threshold:0.8}")
+    private double dedupThreshold;
+
+    public int getFetchK() {
+        return fetchK;
+    }
+
+    /**
+     * 按模型的 Token 预算打包文档
+     *
+     * @param documents 按相关度从高到低排列的检索结果
+     * @param model     模型名称
+     * @return 放入提示词的文档（仍按相关度排列）
+     */
+    public List<Document> pack(List<Document> documents, String model) {
+        if (documents.isEmpty()) {
+            return documents;
+        }
+        int budget = modelBudgets != null && model != null
+                ? modelBudgets.getOrDefault(model, defaultTokenBudget)
+                : defaultTokenBudget;
+
+        List<Document> packed = new ArrayList<>();
+        List<Set<String>> packedShingles = new ArrayList<>();
+        List<String> packedTexts = new ArrayList<>();
+        int used = 0;
+        int duplicates = 0;
+        for (Document document : documents) {
+            String text = document.getText();
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            String normalized = WHITESPACE.matcher(text).replaceAll(" ").trim();
+            Set<String> shingles = shingles(normalized);
+            if (isDuplicate(normalized, shingles, packedTexts, packedShingles)) {
+                duplicates++;
+                continue;
+            }
+
+            int tokens = encoding.countTokensOrdinary(text) + (packed.isEmpty() ? 0 : separatorTokens);
+            if (used + tokens > budget) {
+                if (packed.isEmpty()) {
+                    // 第一条就超出预算：截断后放入
+                    packed.add(truncate(document, budget));
+                    used = budget;
+                    break;
+                }
+                continue;
+            }
+            packed.add(document);
+            packedTexts.add(normalized);
+            packedShingles.add(shingles);
+            used += tokens;
+        }
+
+        log.info("【RAG】上下文打包: 候选 {} 条, 去重 {} 条, 放入 {} 条, {} / {} tokens (模型 {})",
+                documents.size(), duplicates, packed.size(), used, budget, model);
+        return packed;
+    }
+
+    /**
+     * 拼接放入提示词的文档
+     */
+    public static String join(List<Document> documents) {
+        return String.join(SEPARATOR, documents.stream().map(Document::getText).toList());
+    }
+
+    private boolean isDuplicate(String text, Set<String> shingles, List<String> packedTexts, List<Set<String>> packedShingles) {
+        for (int i = 0; i < packedTexts.size(); i++) {
+            String other = packedTexts.get(i);
+            if (other.contains(text) || text.contains(other)) {
+                return true;
+            }
+            if (jaccard(shingles, packedShingles.get(i)) >= dedupThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Document truncate(Document document, int budget) {
+        IntArrayList tokens = encoding.encodeOrdinary(document.getText(), budget).getTokens();
+        return document.mutate().text(encoding.decode(tokens)).build();
+    }
+
+    private static Set<String> shingles(String text) {
+        Set<String> shingles = new HashSet<>();
+        if (text.length() <= SHINGLE_CHARS) {
+            shingles.add(text);
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE_CHARS <= text.length(); i++) {
+            shingles.add(text.substring(i, i + SHINGLE_CHARS));
+        }
+        return shingles;
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        int intersection = 0;
+        for (String shingle : smaller) {
+            if (larger.contains(shingle)) {
+                intersection++;
+            }
+        }
+        int union = a.size() + b.size() - intersection;
+        return union == 0 ? 0 : (double) intersection / union;
+    }
+}
@@ -0,0 +1,37 @@
+package com.xbk.xfg.dev.tech.domain.retrieval;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * 检索结果重排序策略接口（SPI）
+ *
+ * 位于检索与提示词构建之间：检索多取候选，重排序后保留最好的 K 条。
+ * 默认实现为纯 CPU 的词法重叠 + MMR（{@link com.xbk.xfg.dev.tech.domain.retrieval.impl.LexicalMmrReranker}），
+ * 需要基于模型的重排序（Cross-Encoder、Rerank API 等）时新增一个实现并注册为 Spring Bean，
+ * 再把 rag.rerank.type 配置为对应类型即可。
+ *
+ * @author xiexu
+ */
+public interface DocumentReranker {
+
+    /**
+     * 判断是否支持指定的重排序类型
+     *
+     * @param type 重排序类型（rag.rerank.type，如 lexical-mmr）
+     * @return true 如果支持该类型
+     */
+    boolean supports(String type);
+
+    /**
+     * 重排序
+     *
+     * @param query          用户查询
+     * @param queryEmbedding 查询向量（基于模型的实现可能用到）
+     * @param candidates     检索候选，按检索分数从高到低排列
+     * @param topK           保留条数
+     * @return 重排序后的前 topK 条，score 为重排序分数
+     */
+    List<Document> rerank(String query, float[] queryEmbedding, List<Document> candidates, int topK);
+}
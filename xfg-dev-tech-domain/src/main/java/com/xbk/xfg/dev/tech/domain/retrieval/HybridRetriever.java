@@ -0,0 +1,284 @@
+package com.xbk.xfg.dev.tech.domain.retrieval;
+
+import com.xbk.xfg.dev.tech.domain.cache.QueryEmbeddingCache;
+import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 混合检索（向量 + 全文）
+ *
+ * <h2>为什么需要？</h2>
+ * 代码仓库类知识库里，用户经常直接问类名、方法名、错误码，
+ * 这些精确标识符在向量空间里不一定离得近，纯向量检索容易漏掉。
+ * 全文检索正好相反：精确匹配强，语义理解弱。两路结果融合后互相补足。
+ *
+ * <h2>执行方式</h2>
+ * 向量检索（Embedding + pgvector）和全文检索（tsvector + GIN）在 boundedElastic 上并发执行，
+ * 总耗时取决于较慢的一路，而不是两路之和。
+ * 全文检索失败时只用向量结果，不影响对话。
+ *
+ * <h2>全文检索的约束</h2>
+ * - 查询词为 AND 关系并去掉英文停用词，避免 "how / the / is" 这类词命中几乎所有切块
+ * - 'simple' 配置不能切分中文，查询中的中文不参与全文检索（只匹配夹带的标识符），纯中文问题只走向量检索
+ * - 全文命中有单独的、远低于向量检索的相似度下限（lexical-min-similarity）：精确标识符、错误码的切块
+ *   向量相似度往往不高，正是全文检索要补回的结果；下限只排除语义上毫不相关的切块
+ *
+ * <h2>倒数排名融合（RRF）</h2>
+ * 两路的分数量纲不同（余弦相似度 vs ts_rank_cd），不能直接相加，只使用排名：
+ * score(d) = Σ 1 / (k + rank(d))，k 默认 60。
+ * 两路都命中的文档排名靠前；只被一路命中的文档按该路排名参与。
+ *
+ * <h2>多知识库分别检索（fan-out）</h2>
+ * 选中多个知识库时，一次 knowledge = ANY(?) 检索的结果会被最大的知识库占满。
+ * 开启 fan-out 后每个知识库单独检索（查询向量只计算一次）：
+ * - 最多 fan-out.parallelism 个知识库同时检索
+ * - 所有知识库共用一个截止时间，超时的知识库直接放弃，返回已完成的部分结果
+ * - 合并时每个知识库先保证 ceil(topK / 知识库数) 个名额，剩余名额按分数补齐
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class HybridRetriever {
+
+    private static final Comparator<Document> BY_SCORE_DESC =
+            Comparator.comparing((Document document) -> document.getScore() != null ? document.getScore() : 0d).reversed();
+
+    /**
+     * 是否启用全文检索，关闭后只做向量检索
+     */
+    @Value("${rag.retrieval.hybrid-enabled:true}")
+    private boolean hybridEnabled;
+
+    /**
+     * 每一路检索的候选数量（融合前）
+     */
+    @Value("${rag.retrieval.candidates:20}")
+    private int candidates;
+
+    /**
+     * 全文检索命中的最低向量相似度，不超过向量检索的阈值；-1 表示不限制
+     */
+    @Value("${rag.retrieval.lexical-min-similarity:0.2}")
+    private double lexicalMinSimilarity;
+
+    /**
+     * RRF 平滑常数
+     */
+    @Value("${rag.retrieval.rrf-k:60}")
+    private int rrfK;
+
+    /**
+     * 是否按知识库分别检索
+     */
+    @Value("${rag.retrieval.fan-out.enabled:true}")
+    private boolean fanOutEnabled;
+
+    /**
+     * 选中的知识库数达到该值才分别检索
+     */
+    @Value("${rag.retrieval.fan-out.min-tags:2}")
+    private int fanOutMinTags;
+
+    /**
+     * 同时检索的知识库数
+     */
+    @Value("${rag.retrieval.fan-out.parallelism:4}")
+    private int fanOutParallelism;
+
+    /**
+     * 所有知识库共用的检索截止时间（毫秒，从开始检索算起）
+     */
+    @Value("${rag.retrieval.fan-out.deadline-millis:3000}")
+    private long fanOutDeadlineMillis;
+
+    @Resource
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+
+    /**
+     * 在指定知识库中检索
+     *
+     * @param query               用户查询
+     * @param ragTags             知识库标签
+     * @param topK                最多返回条数
+     * @param similarityThreshold 向量检索的相似度阈值
+     * @return 融合后按 RRF 分数从高到低排列的文档
+     */
+    public Mono<List<Document>> retrieve(String query, Collection<String> ragTags, int topK, double similarityThreshold) {
+        return retrieve(query, embedQuery(query), ragTags, topK, similarityThreshold);
+    }
+
+    /**
+     * 计算查询向量（在 boundedElastic 上执行，结果缓存，多次订阅只计算一次）
+     * 常见问题直接命中查询向量缓存，省去 Embedding 往返
+     */
+    public Mono<float[]> embedQuery(String query) {
+        return Mono.fromCallable(() -> queryEmbeddingCache.get(query, () -> embeddingModel.embed(query)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .cache();
+    }
+
+    /**
+     * 使用已有的查询向量检索（调用方已经计算过向量时使用，避免重复计算）
+     *
+     * @param embedding 查询向量，多个知识库共用
+     */
+    public Mono<List<Document>> retrieve(String query, Mono<float[]> embedding, Collection<String> ragTags,
+                                         int topK, double similarityThreshold) {
+        int candidateCount = Math.max(topK, candidates);
+        if (!fanOutEnabled || ragTags.size() < Math.max(2, fanOutMinTags)) {
+            return search(query, embedding, ragTags, candidateCount, similarityThreshold)
+                    .map(documents -> limit(documents, topK));
+        }
+        return fanOut(query, embedding, List.copyOf(ragTags), topK, candidateCount, similarityThreshold);
+    }
+
+    /**
+     * 每个知识库单独检索，在截止时间内收集结果后按配额合并
+     */
+    private Mono<List<Document>> fanOut(String query, Mono<float[]> embedding, List<String> ragTags,
+                                        int topK, int candidateCount, double similarityThreshold) {
+        long start = System.currentTimeMillis();
+        return Flux.fromIterable(ragTags)
+                .flatMap(ragTag -> search(query, embedding, List.of(ragTag), candidateCount, similarityThreshold)
+                                .map(documents -> new TagResult(ragTag, documents))
+                                .onErrorResume(e -> {
+                                    log.warn("【RAG】知识库 {} 检索失败，跳过: {}", ragTag, e.getMessage());
+                                    return Mono.empty();
+                                }),
+                        Math.max(1, fanOutParallelism))
+                // 共用截止时间：到时取消尚未完成的知识库，只保留已返回的结果
+                .take(Duration.ofMillis(fanOutDeadlineMillis))
+                .collectList()
+                .map(results -> {
+                    if (results.size() < ragTags.size()) {
+                        log.warn("【RAG】{} ms 内只有 {}/{} 个知识库返回，使用部分结果",
+                                System.currentTimeMillis() - start, results.size(), ragTags.size());
+                    }
+                    return mergeWithQuotas(results, ragTags.size(), topK);
+                });
+    }
+
+    /**
+     * 按配额合并：每个知识库先取前 ceil(topK / 知识库数) 条，剩余名额按分数从其余结果中补齐
+     */
+    public List<Document> mergeWithQuotas(List<TagResult> results, int tagCount, int topK) {
+        int quota = Math.max(1, (topK + tagCount - 1) / tagCount);
+        Map<String, Document> selected = new LinkedHashMap<>();
+        List<Document> overflow = new ArrayList<>();
+        for (TagResult result : results) {
+            List<Document> documents = result.documents();
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                if (i < quota) {
+                    selected.putIfAbsent(document.getId(), document);
+                } else {
+                    overflow.add(document);
+                }
+            }
+        }
+        overflow.sort(BY_SCORE_DESC);
+        for (Document document : overflow) {
+            if (selected.size() >= topK) {
+                break;
+            }
+            selected.putIfAbsent(document.getId(), document);
+        }
+        return limit(selected.values().stream().sorted(BY_SCORE_DESC).toList(), topK);
+    }
+
+    /**
+     * 在给定知识库中做一次（混合）检索，返回融合后的全部候选
+     */
+    private Mono<List<Document>> search(String query, Mono<float[]> embedding, Collection<String> ragTags,
+                                        int candidateCount, double similarityThreshold) {
+        Mono<List<Document>> vectorLeg = embedding
+                .flatMap(vector -> Mono.fromCallable(() -> vectorStoreRepository.similaritySearch(
+                                vector, ragTags, candidateCount, similarityThreshold))
+                        .subscribeOn(Schedulers.boundedElastic()));
+
+        if (!hybridEnabled) {
+            return vectorLeg;
+        }
+
+        // 全文检索使用单独的低下限：保留向量相似度不高的精确匹配，只排除语义无关的切块
+        double lexicalThreshold = Math.min(lexicalMinSimilarity, similarityThreshold);
+        Mono<List<Document>> lexicalLeg = embedding
+                .flatMap(vector -> Mono.fromCallable(() -> vectorStoreRepository.fullTextSearch(
+                                query, vector, ragTags, candidateCount, lexicalThreshold))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .onErrorResume(e -> {
+                    log.warn("【RAG】全文检索失败，只使用向量检索结果: {}", e.getMessage());
+                    return Mono.just(List.of());
+                });
+
+        return Mono.zip(vectorLeg, lexicalLeg)
+                .map(legs -> {
+                    List<Document> fused = fuse(legs.getT1(), legs.getT2(), candidateCount);
+                    log.info("【RAG】混合检索 {}: 向量 {} 条, 全文 {} 条, 融合后 {} 条",
+                            ragTags, legs.getT1().size(), legs.getT2().size(), fused.size());
+                    return fused;
+                });
+    }
+
+    private static List<Document> limit(List<Document> documents, int topK) {
+        return documents.size() > topK ? documents.subList(0, topK) : documents;
+    }
+
+    /**
+     * 倒数排名融合，按文档 ID 去重
+     */
+    public List<Document> fuse(List<Document> vectorResults, List<Document> lexicalResults, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        accumulate(vectorResults, documents, scores);
+        accumulate(lexicalResults, documents, scores);
+
+        List<Document> fused = new ArrayList<>(documents.size());
+        scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(topK)
+                .forEach(entry -> {
+                    Document document = documents.get(entry.getKey());
+                    fused.add(document.mutate().score(entry.getValue()).build());
+                });
+        return fused;
+    }
+
+    private void accumulate(List<Document> results, Map<String, Document> documents, Map<String, Double> scores) {
+        for (int rank = 0; rank < results.size(); rank++) {
+            Document document = results.get(rank);
+            // 向量结果先加入，同一文档保留带 distance 的那份
+            documents.putIfAbsent(document.getId(), document);
+            scores.merge(document.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+        }
+    }
+
+    /**
+     * 单个知识库的检索结果（已按分数从高到低排列）
+     */
+    public record TagResult(String ragTag, List<Document> documents) {
+    }
+}
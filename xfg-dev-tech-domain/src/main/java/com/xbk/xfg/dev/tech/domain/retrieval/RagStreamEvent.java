@@ -0,0 +1,37 @@
+package com.xbk.xfg.dev.tech.domain.retrieval;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * RAG 流式对话事件
+ * 检索放在响应流内部执行，事件依次为：RETRIEVING → SOURCES → ANSWER...
+ *
+ * @param type      事件类型
+ * @param ragTags   RETRIEVING：正在检索的知识库
+ * @param documents SOURCES：检索命中的文档
+ * @param response  ANSWER：模型输出片段
+ * @author xiexu
+ */
+public record RagStreamEvent(Type type, List<String> ragTags, List<Document> documents, ChatResponse response) {
+
+    public enum Type {
+        RETRIEVING,
+        SOURCES,
+        ANSWER
+    }
+
+    public static RagStreamEvent retrieving(List<String> ragTags) {
+        return new RagStreamEvent(Type.RETRIEVING, ragTags, null, null);
+    }
+
+    public static RagStreamEvent sources(List<Document> documents) {
+        return new RagStreamEvent(Type.SOURCES, null, documents, null);
+    }
+
+    public static RagStreamEvent answer(ChatResponse response) {
+        return new RagStreamEvent(Type.ANSWER, null, null, response);
+    }
+}
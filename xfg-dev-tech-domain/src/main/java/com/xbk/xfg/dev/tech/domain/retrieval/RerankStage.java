@@ -0,0 +1,103 @@
+package com.xbk.xfg.dev.tech.domain.retrieval;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 重排序阶段
+ * 检索 → 重排序 → 上下文打包
+ *
+ * <h2>为什么需要？</h2>
+ * 只靠固定的 0.7 相似度阈值过滤：好结果可能刚好低于阈值被丢掉，噪声结果也可能高于阈值混进来。
+ * 开启重排序后：
+ * - 检索阈值放宽到 min-similarity，候选数扩大 over-fetch 倍
+ * - 由 {@link DocumentReranker} 重新打分，只保留最好的 K 条
+ * 发给大模型的切块更少、更准，提示词更短。
+ *
+ * <h2>配置</h2>
+ * rag.rerank.type：重排序类型，默认 lexical-mmr；none 关闭重排序（保持原有阈值和候选数）
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class RerankStage {
+
+    private static final String NONE = "none";
+
+    @Value("${rag.rerank.type:lexical-mmr}")
+    private String type;
+
+    /**
+     * 候选数放大倍数
+     */
+    @Value("${rag.rerank.over-fetch:3}")
+    private int overFetch;
+
+    /**
+     * 开启重排序时向量检索的相似度下限
+     */
+    @Value("${rag.rerank.min-similarity:0.5}")
+    private double minSimilarity;
+
+    @Resource
+    private List<DocumentReranker> rerankers;
+
+    private DocumentReranker reranker;
+
+    @PostConstruct
+    public void init() {
+        if (NONE.equalsIgnoreCase(type)) {
+            log.info("检索重排序已关闭");
+            return;
+        }
+        reranker = rerankers.stream()
+                .filter(r -> r.supports(type))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("不支持的重排序类型: " + type));
+        log.info("检索重排序: {}（候选 ×{}，相似度下限 {}）", type, overFetch, minSimilarity);
+    }
+
+    public boolean isEnabled() {
+        return reranker != null;
+    }
+
+    /**
+     * 检索候选数：开启重排序时扩大 over-fetch 倍
+     */
+    public int candidateCount(int topK) {
+        return isEnabled() ? topK * Math.max(1, overFetch) : topK;
+    }
+
+    /**
+     * 向量检索相似度阈值：开启重排序时放宽到 min-similarity，由重排序决定去留
+     */
+    public double similarityThreshold(double defaultThreshold) {
+        return isEnabled() ? Math.min(defaultThreshold, minSimilarity) : defaultThreshold;
+    }
+
+    /**
+     * 重排序并保留前 topK 条；重排序失败时退回检索顺序
+     */
+    public List<Document> rerank(String query, float[] queryEmbedding, List<Document> candidates, int topK) {
+        if (!isEnabled() || candidates.isEmpty()) {
+            return candidates.size() > topK ? candidates.subList(0, topK) : candidates;
+        }
+        long start = System.nanoTime();
+        try {
+            List<Document> reranked = reranker.rerank(query, queryEmbedding, candidates, topK);
+            log.info("【RAG】重排序: 候选 {} 条 → {} 条, 耗时 {} ms",
+                    candidates.size(), reranked.size(), (System.nanoTime() - start) / 1_000_000);
+            return reranked;
+        } catch (Exception e) {
+            log.warn("【RAG】重排序失败，使用检索顺序: {}", e.getMessage());
+            return candidates.size() > topK ? candidates.subList(0, topK) : candidates;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.xbk.xfg.dev.tech.domain.retrieval.impl;
+
+import com.xbk.xfg.dev.tech.domain.retrieval.DocumentReranker;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 词法重叠 + MMR 重排序（纯 CPU，不调用模型）
+ *
+ * <h2>相关度</h2>
+ * relevance = α × 检索分数（候选内 min-max 归一化） + (1 - α) × 查询词覆盖率
+ * 查询词覆盖率按候选集内的 IDF 加权：只在少数切块中出现的词（类名、错误码）权重更高。
+ *
+ * <h2>多样性（MMR）</h2>
+ * 逐条选择 λ × relevance - (1 - λ) × max(与已选切块的词集 Jaccard 相似度) 最大的候选，
+ * 避免同一段内容的多个相邻切块占满上下文。
+ *
+ * <h2>分词</h2>
+ * 英文、数字按连续字母数字切分并转小写；中日韩文字按字符二元组切分，不依赖分词器。
+ *
+ * @author xiexu
+ */
+@Component
+public class LexicalMmrReranker implements DocumentReranker {
+
+    public static final String TYPE = "lexical-mmr";
+
+    /**
+     * 检索分数的权重 α
+     */
+    @Value("${rag.rerank.lexical-mmr.retrieval-weight:0.5}")
+    private double retrievalWeight;
+
+    /**
+     * MMR 中相关度的权重 λ（越小越强调多样性）
+     */
+    @Value("${rag.rerank.lexical-mmr.lambda:0.7}")
+    private double lambda;
+
+    @Override
+    public boolean supports(String type) {
+        return TYPE.equalsIgnoreCase(type);
+    }
+
+    @Override
+    public List<Document> rerank(String query, float[] queryEmbedding, List<Document> candidates, int topK) {
+        if (candidates.size() <= 1) {
+            return candidates;
+        }
+        int n = candidates.size();
+        List<Set<String>> terms = new ArrayList<>(n);
+        for (Document candidate : candidates) {
+            terms.add(terms(candidate.getText()));
+        }
+
+        // 候选集内的文档频率，用于 IDF
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (Set<String> documentTerms : terms) {
+            documentTerms.forEach(term -> documentFrequency.merge(term, 1, Integer::sum));
+        }
+        Set<String> queryTerms = terms(query);
+        double queryWeight = 0;
+        for (String term : queryTerms) {
+            queryWeight += idf(n, documentFrequency.getOrDefault(term, 0));
+        }
+
+        // 检索分数 min-max 归一化
+        double minScore = Double.MAX_VALUE;
+        double maxScore = -Double.MAX_VALUE;
+        for (Document candidate : candidates) {
+            double score = scoreOf(candidate);
+            minScore = Math.min(minScore, score);
+            maxScore = Math.max(maxScore, score);
+        }
+
+        double[] relevance = new double[n];
+        for (int i = 0; i < n; i++) {
+            double retrieval = maxScore > minScore ? (scoreOf(candidates.get(i)) - minScore) / (maxScore - minScore) : 1;
+            double coverage = 0;
+            if (queryWeight > 0) {
+                for (String term : queryTerms) {
+                    if (terms.get(i).contains(term)) {
+                        coverage += idf(n, documentFrequency.get(term));
+                    }
+                }
+                coverage /= queryWeight;
+            }
+            relevance[i] = retrievalWeight * retrieval + (1 - retrievalWeight) * coverage;
+        }
+
+        // MMR 选择
+        List<Document> selected = new ArrayList<>(Math.min(topK, n));
+        List<Integer> selectedIndexes = new ArrayList<>();
+        boolean[] used = new boolean[n];
+        while (selected.size() < topK && selected.size() < n) {
+            int best = -1;
+            double bestScore = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (used[i]) {
+                    continue;
+                }
+                double redundancy = 0;
+                for (int j : selectedIndexes) {
+                    redundancy = Math.max(redundancy, jaccard(terms.get(i), terms.get(j)));
+                }
+                double score = lambda * relevance[i] - (1 - lambda) * redundancy;
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            used[best] = true;
+            selectedIndexes.add(best);
+            selected.add(candidates.get(best).mutate().score(relevance[best]).build());
+        }
+        return selected;
+    }
+
+    private static double scoreOf(Document document) {
+        return document.getScore() != null ? document.getScore() : 0;
+    }
+
+    private static double idf(int documents, int frequency) {
+        return Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5));
+    }
+
+    /**
+     * 分词：字母数字连续序列转小写；中日韩文字取字符二元组（单字时取单字）
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder word = new StringBuilder();
+        int previousIdeograph = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isIdeographic(codePoint)) {
+                flush(word, terms);
+                if (previousIdeograph >= 0) {
+                    terms.add(new StringBuilder().appendCodePoint(previousIdeograph).appendCodePoint(codePoint).toString());
+                } else {
+                    terms.add(new String(Character.toChars(codePoint)));
+                }
+                previousIdeograph = codePoint;
+            } else {
+                previousIdeograph = -1;
+                if (Character.isLetterOrDigit(codePoint)) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                } else {
+                    flush(word, terms);
+                }
+            }
+        }
+        flush(word, terms);
+        return terms;
+    }
+
+    private static void flush(StringBuilder word, Set<String> terms) {
+        if (word.length() > 0) {
+            terms.add(word.toString().toLowerCase(Locale.ROOT));
+            word.setLength(0);
+        }
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 0;
+        }
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        int intersection = 0;
+        for (String term : smaller) {
+            if (larger.contains(term)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+}
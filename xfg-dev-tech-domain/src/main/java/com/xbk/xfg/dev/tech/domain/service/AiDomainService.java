@@ -1,26 +1,30 @@
 package com.xbk.xfg.dev.tech.domain.service;
 
+import com.xbk.xfg.dev.tech.domain.cache.SemanticAnswerCache;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory.ChatClientWrapper;
+import com.xbk.xfg.dev.tech.domain.retrieval.ContextPacker;
+import com.xbk.xfg.dev.tech.domain.retrieval.HybridRetriever;
+import com.xbk.xfg.dev.tech.domain.retrieval.RagStreamEvent;
+import com.xbk.xfg.dev.tech.domain.retrieval.RerankStage;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.openai.OpenAiChatOptions;
-import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
-import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * AI 领域服务
@@ -34,11 +38,25 @@ public class AiDomainService {
 
     private static final double RAG_SIMILARITY_THRESHOLD = 0.7d;
 
+    /**
+     * 回放缓存回答时每个片段的字符数
+     */
+    private static final int REPLAY_CHUNK_CHARS = 16;
+
     @Resource
     private DynamicChatClientFactory dynamicChatClientFactory;
 
     @Resource
-    private PgVectorStore pgVectorStore;
+    private HybridRetriever hybridRetriever;
+
+    @Resource
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Resource
+    private ContextPacker contextPacker;
+
+    @Resource
+    private RerankStage rerankStage;
 
     /**
      * 同步生成
@@ -65,19 +83,84 @@ public class AiDomainService {
 
     /**
      * RAG 流式对话（支持多知识库）
-     * 使用 OR 策略合并多个知识库的检索结果
+     * 检索（Embedding HTTP 调用 + JDBC 查询）是响应流的一部分，在 boundedElastic 上执行，
+     * 调用方拿到 Flux 后立即可以推送 RETRIEVING 事件，请求线程不会被检索阻塞
      *
      * @param model   模型名称
      * @param ragTags 知识库标签列表，为空则走普通对话
      * @param message 用户消息
+     * @return RETRIEVING → SOURCES → ANSWER... 事件流
      */
-    public Flux<ChatResponse> generateStreamRag(String model, List<String> ragTags, String message) {
+    public Flux<RagStreamEvent> generateStreamRag(String model, List<String> ragTags, String message) {
         // 如果没有选择知识库，走普通对话流程
         if (CollectionUtils.isEmpty(ragTags)) {
             log.info("【RAG】未选择知识库，走普通对话流程");
-            return generateStream(model, message);
+            return generateStream(model, message).map(RagStreamEvent::answer);
+        }
+
+        Flux<RagStreamEvent> answer = Flux.defer(() -> {
+            log.info("【RAG】多知识库检索，知识库: {}", ragTags);
+            String actualModel = resolveModel(model);
+            String scope = semanticAnswerCache.scope(
+                    dynamicChatClientFactory.getActiveProviderType(), actualModel, ragTags);
+            return hybridRetriever.embedQuery(message)
+                    .flatMapMany(embedding -> {
+                        // 先读版本号再生成，生成过程中知识库被修改时写入的条目直接过期；读取失败（null）时绕过缓存
+                        Map<String, String> versions = semanticAnswerCache.isEnabled()
+                                ? semanticAnswerCache.versions(ragTags) : null;
+                        SemanticAnswerCache.Entry cached = semanticAnswerCache.lookup(scope, embedding, versions);
+                        if (cached != null) {
+                            return Flux.concat(Mono.just(RagStreamEvent.sources(cached.sources())),
+                                    replay(cached.answer()).map(RagStreamEvent::answer));
+                        }
+
+                        // 检索（向量 + 全文并发，RRF 融合）→ 重排序保留 fetch-k 条 → 按 Token 预算打包
+                        int fetchK = contextPacker.getFetchK();
+                        return hybridRetriever.retrieve(message, Mono.just(embedding), ragTags,
+                                        rerankStage.candidateCount(fetchK),
+                                        rerankStage.similarityThreshold(RAG_SIMILARITY_THRESHOLD))
+                                .defaultIfEmpty(List.of())
+                                .map(candidates -> rerankStage.rerank(message, embedding, candidates, fetchK))
+                                .map(candidates -> contextPacker.pack(candidates, actualModel))
+                                .flatMapMany(documents -> {
+                                    StringBuilder fullAnswer = new StringBuilder();
+                                    Flux<ChatResponse> generated = generateWithDocuments(actualModel, message, documents)
+                                            .doOnNext(response -> fullAnswer.append(textOf(response)))
+                                            // 只缓存完整生成的回答，取消或出错时不写入
+                                            .doOnComplete(() -> semanticAnswerCache.put(
+                                                    scope, embedding, versions, documents, fullAnswer.toString()));
+                                    return Flux.concat(Mono.just(RagStreamEvent.sources(documents)),
+                                            generated.map(RagStreamEvent::answer));
+                                });
+                    });
+        });
+        return Flux.concat(Mono.just(RagStreamEvent.retrieving(ragTags)), answer);
+    }
+
+    /**
+     * 把缓存的回答切成小片段按流式输出回放，前端处理方式与实时生成相同
+     */
+    private Flux<ChatResponse> replay(String answer) {
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int start = 0; start < answer.length(); start += REPLAY_CHUNK_CHARS) {
+            String chunk = answer.substring(start, Math.min(answer.length(), start + REPLAY_CHUNK_CHARS));
+            chunks.add(new ChatResponse(List.of(new Generation(new AssistantMessage(chunk)))));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static String textOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
         }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
 
+    /**
+     * 把检索到的文档注入系统提示词后流式生成；没有文档时走普通对话
+     */
+    private Flux<ChatResponse> generateWithDocuments(String model, String message, List<Document> documents) {
         String SYSTEM_PROMPT = """
                 请根据【参考文档】部分的信息来回答用户的问题。
                 回答时要表现得像你本来就知道这些信息一样，不要提及"根据文档"之类的话。
@@ -87,24 +170,6 @@ public class AiDomainService {
                 {documents}
                 """;
 
-        // 构建 OR 过滤表达式：knowledge == 'doc1' || knowledge == 'doc2'
-        String filterExpression = ragTags.stream()
-                .map(tag -> "knowledge == '" + tag + "'")
-                .collect(Collectors.joining(" || "));
-
-        log.info("【RAG】多知识库检索，过滤表达式: {}", filterExpression);
-
-        SearchRequest request = SearchRequest.builder()
-                .query(message)
-                .topK(5)
-                .similarityThreshold(RAG_SIMILARITY_THRESHOLD)
-                .filterExpression(filterExpression)
-                .build();
-
-        List<Document> documents = pgVectorStore.similaritySearch(request);
-        if (documents == null) {
-            documents = List.of();
-        }
         log.info("【RAG】检索到 {} 条相关文档", documents.size());
         // 打印检索到的文档来源，方便调试
         documents.forEach(doc -> {
@@ -116,13 +181,11 @@ public class AiDomainService {
         });
         // 低相关时不注入文档，直接走普通对话
         if (documents.isEmpty()) {
-            log.info("【RAG】相似度低于阈值 {}，退回普通对话", RAG_SIMILARITY_THRESHOLD);
+            log.info("【RAG】向量相似度低于阈值 {} 且无全文命中，退回普通对话", RAG_SIMILARITY_THRESHOLD);
             return generateStream(model, message);
         }
 
-        String documentCollectors = documents.stream()
-                .map(Document::getText)
-                .collect(Collectors.joining("\n"));
+        String documentCollectors = ContextPacker.join(documents);
 
         Message ragMessage = new SystemPromptTemplate(SYSTEM_PROMPT)
                 .createMessage(Map.of("documents", documentCollectors));
@@ -148,17 +211,18 @@ public class AiDomainService {
      */
     private org.springframework.ai.chat.prompt.ChatOptions createOptions(String model) {
         String providerType = dynamicChatClientFactory.getActiveProviderType();
-        String actualModel = model;
-        
-        // 如果没有指定模型，使用默认模型
-        if (actualModel == null || actualModel.isEmpty()) {
-            actualModel = dynamicChatClientFactory.getActiveDefaultModel();
-            log.info("使用默认模型: {}", actualModel);
-        }
-        
-        if ("OLLAMA".equalsIgnoreCase(providerType)) {
-            return org.springframework.ai.ollama.api.OllamaOptions.builder().model(actualModel).build();
+        return DynamicChatClientFactory.createOptions(providerType, resolveModel(model));
+    }
+
+    /**
+     * 没有指定模型时使用当前激活配置的默认模型
+     */
+    private String resolveModel(String model) {
+        if (model == null || model.isEmpty()) {
+            String defaultModel = dynamicChatClientFactory.getActiveDefaultModel();
+            log.info("使用默认模型: {}", defaultModel);
+            return defaultModel;
         }
-        return OpenAiChatOptions.builder().model(actualModel).build();
+        return model;
     }
 }
@@ -3,13 +3,11 @@ package com.xbk.xfg.dev.tech.domain.service;
 import com.xbk.xfg.dev.tech.api.dto.EmbeddingActivationResultDTO;
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
 import com.xbk.xfg.dev.tech.api.response.Response;
+import com.xbk.xfg.dev.tech.domain.cache.LlmConfigCache;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicEmbeddingFactory;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RBucket;
-import org.redisson.api.RMap;
-import org.redisson.api.RedissonClient;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -21,6 +19,7 @@ import java.util.UUID;
 /**
  * 大模型配置管理领域服务
  * DDD 架构 - 领域层，包含业务逻辑
+ * 配置读写经过 {@link LlmConfigCache}：读取只访问本地视图，写入后广播给所有实例
  *
  * @author xiexu
  */
@@ -28,12 +27,8 @@ import java.util.UUID;
 @Service
 public class LlmConfigDomainService {
 
-    private static final String CONFIG_HASH_KEY = "llm:provider:configs";
-    private static final String ACTIVE_CONFIG_KEY = "llm:provider:active";
-    private static final String ACTIVE_EMBEDDING_CONFIG_KEY = "llm:provider:active:embedding";
-
     @Resource
-    private RedissonClient redissonClient;
+    private LlmConfigCache llmConfigCache;
 
     @Resource
     private DynamicChatClientFactory dynamicChatClientFactory;
@@ -43,16 +38,17 @@ public class LlmConfigDomainService {
 
     public Response<List<LlmProviderConfigDTO>> getAllConfigs() {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
             String activeId = getActiveConfigId();
             String activeEmbeddingId = getActiveEmbeddingConfigId();
 
-            List<LlmProviderConfigDTO> configs = new ArrayList<>(configMap.values());
-            // 标记当前激活的配置
-            configs.forEach(config -> {
+            // 缓存中的配置是共享实例，复制后再标记当前激活的配置
+            List<LlmProviderConfigDTO> configs = new ArrayList<>();
+            for (LlmProviderConfigDTO cached : llmConfigCache.getAllConfigs()) {
+                LlmProviderConfigDTO config = copyOf(cached);
                 config.setActive(config.getId().equals(activeId));
                 config.setActiveForEmbedding(config.getId().equals(activeEmbeddingId));
-            });
+                configs.add(config);
+            }
 
             return Response.<List<LlmProviderConfigDTO>>builder()
                     .code("0000").info("查询成功").data(configs).build();
@@ -65,14 +61,14 @@ public class LlmConfigDomainService {
 
     public Response<LlmProviderConfigDTO> getConfigById(String id) {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-            LlmProviderConfigDTO config = configMap.get(id);
+            LlmProviderConfigDTO cached = llmConfigCache.getConfig(id);
 
-            if (config == null) {
+            if (cached == null) {
                 return Response.<LlmProviderConfigDTO>builder()
                         .code("4004").info("配置不存在").build();
             }
 
+            LlmProviderConfigDTO config = copyOf(cached);
             String activeId = getActiveConfigId();
             String activeEmbeddingId = getActiveEmbeddingConfigId();
             config.setActive(id.equals(activeId));
@@ -94,8 +90,7 @@ public class LlmConfigDomainService {
             config.setCreatedAt(LocalDateTime.now());
             config.setUpdatedAt(LocalDateTime.now());
 
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-            configMap.put(config.getId(), config);
+            llmConfigCache.saveConfig(config);
 
             log.info("创建配置成功: {} - {}", config.getId(), config.getName());
             return Response.<LlmProviderConfigDTO>builder()
@@ -109,24 +104,19 @@ public class LlmConfigDomainService {
 
     public Response<LlmProviderConfigDTO> updateConfig(String id, LlmProviderConfigDTO config) {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-
-            if (!configMap.containsKey(id)) {
+            LlmProviderConfigDTO existing = llmConfigCache.getConfig(id);
+            if (existing == null) {
                 return Response.<LlmProviderConfigDTO>builder()
                         .code("4004").info("配置不存在").build();
             }
 
-            LlmProviderConfigDTO existing = configMap.get(id);
             validateEmbeddingConfig(config);
             config.setId(id);
             config.setCreatedAt(existing.getCreatedAt());
             config.setUpdatedAt(LocalDateTime.now());
 
-            configMap.put(id, config);
-
-            // 使缓存失效
-            dynamicChatClientFactory.invalidateCache(id);
-            dynamicEmbeddingFactory.invalidateCache(id);
+            // 写入后广播，所有实例的工厂清理该配置的客户端
+            llmConfigCache.saveConfig(config);
 
             log.info("更新配置成功: {}", id);
             return Response.<LlmProviderConfigDTO>builder()
@@ -140,9 +130,7 @@ public class LlmConfigDomainService {
 
     public Response<Boolean> deleteConfig(String id) {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-
-            if (!configMap.containsKey(id)) {
+            if (!llmConfigCache.containsConfig(id)) {
                 return Response.<Boolean>builder()
                         .code("4004").info("配置不存在").data(false).build();
             }
@@ -157,9 +145,7 @@ public class LlmConfigDomainService {
                         .code("4003").info("不能删除当前激活的 Embedding 配置").data(false).build();
             }
 
-            configMap.remove(id);
-            dynamicChatClientFactory.invalidateCache(id);
-            dynamicEmbeddingFactory.invalidateCache(id);
+            llmConfigCache.removeConfig(id);
 
             log.info("删除配置成功: {}", id);
             return Response.<Boolean>builder()
@@ -173,18 +159,13 @@ public class LlmConfigDomainService {
 
     public Response<Boolean> activateConfig(String id) {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-
-            if (!configMap.containsKey(id)) {
+            if (!llmConfigCache.containsConfig(id)) {
                 return Response.<Boolean>builder()
                         .code("4004").info("配置不存在").data(false).build();
             }
 
-            RBucket<String> activeBucket = redissonClient.getBucket(ACTIVE_CONFIG_KEY);
-            activeBucket.set(id);
-
-            // 通知工厂更新激活配置
-            dynamicChatClientFactory.onConfigActivated(id);
+            // 写入后广播，所有实例的工厂切换到新配置
+            llmConfigCache.setActiveChatId(id);
 
             log.info("激活配置成功: {}", id);
             return Response.<Boolean>builder()
@@ -198,9 +179,7 @@ public class LlmConfigDomainService {
 
     public Response<EmbeddingActivationResultDTO> activateEmbeddingConfig(String id, boolean force) {
         try {
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-
-            if (!configMap.containsKey(id)) {
+            if (!llmConfigCache.containsConfig(id)) {
                 return Response.<EmbeddingActivationResultDTO>builder()
                         .code("4004").info("配置不存在").build();
             }
@@ -251,8 +230,8 @@ public class LlmConfigDomainService {
                         .code("4004").info("没有激活的 Embedding 配置").build();
             }
 
-            RMap<String, LlmProviderConfigDTO> configMap = redissonClient.getMap(CONFIG_HASH_KEY);
-            LlmProviderConfigDTO config = configMap.get(activeId);
+            LlmProviderConfigDTO cached = llmConfigCache.getConfig(activeId);
+            LlmProviderConfigDTO config = cached != null ? copyOf(cached) : null;
             if (config != null) {
                 config.setActive(true);
                 config.setActiveForEmbedding(true);
@@ -312,13 +291,30 @@ public class LlmConfigDomainService {
     }
 
     private String getActiveConfigId() {
-        RBucket<String> activeBucket = redissonClient.getBucket(ACTIVE_CONFIG_KEY);
-        return activeBucket.get();
+        return llmConfigCache.getActiveChatId();
     }
 
     private String getActiveEmbeddingConfigId() {
-        RBucket<String> activeBucket = redissonClient.getBucket(ACTIVE_EMBEDDING_CONFIG_KEY);
-        return activeBucket.get();
+        return llmConfigCache.getActiveEmbeddingId();
+    }
+
+    private static LlmProviderConfigDTO copyOf(LlmProviderConfigDTO config) {
+        return LlmProviderConfigDTO.builder()
+                .id(config.getId())
+                .name(config.getName())
+                .providerType(config.getProviderType())
+                .baseUrl(config.getBaseUrl())
+                .apiKey(config.getApiKey())
+                .defaultModel(config.getDefaultModel())
+                .models(config.getModels())
+                .poolWeight(config.getPoolWeight())
+                .active(config.isActive())
+                .createdAt(config.getCreatedAt())
+                .updatedAt(config.getUpdatedAt())
+                .embeddingModel(config.getEmbeddingModel())
+                .embeddingDimension(config.getEmbeddingDimension())
+                .activeForEmbedding(config.isActiveForEmbedding())
+                .build();
     }
 
     private void validateEmbeddingConfig(LlmProviderConfigDTO config) {
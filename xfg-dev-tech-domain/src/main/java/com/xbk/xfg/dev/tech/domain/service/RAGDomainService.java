@@ -2,36 +2,39 @@ package com.xbk.xfg.dev.tech.domain.service;
 
 import com.xbk.xfg.dev.tech.api.dto.TaskProgressDTO;
 import com.xbk.xfg.dev.tech.api.response.Response;
+import com.xbk.xfg.dev.tech.domain.cache.SemanticAnswerCache;
+import com.xbk.xfg.dev.tech.domain.ingestion.DocumentIngestionPipeline;
+import com.xbk.xfg.dev.tech.domain.ingestion.FileManifest;
+import com.xbk.xfg.dev.tech.domain.ingestion.GitRepositorySync;
 import com.xbk.xfg.dev.tech.domain.repository.VectorStoreRepository;
+import com.xbk.xfg.dev.tech.domain.task.TaskControl;
+import com.xbk.xfg.dev.tech.domain.task.TaskHandle;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.redisson.api.RBucket;
 import org.redisson.api.RList;
+import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.PathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RAG 领域服务
@@ -43,17 +46,43 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Service
 public class RAGDomainService {
 
+    /**
+     * 本地仓库目录，按知识库保留，用于增量拉取
+     */
+    private static final String GIT_REPO_DIR = "./git-cloned-repo/";
+
     @Resource
-    private TokenTextSplitter tokenTextSplitter;
+    private RedissonClient redissonClient;
 
     @Resource
-    private PgVectorStore pgVectorStore;
+    private VectorStoreRepository vectorStoreRepository;
 
     @Resource
-    private RedissonClient redissonClient;
+    private DocumentIngestionPipeline documentIngestionPipeline;
 
     @Resource
-    private VectorStoreRepository vectorStoreRepository;
+    private GitRepositorySync gitRepositorySync;
+
+    @Resource
+    private TaskControl taskControl;
+
+    @Resource
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Resource(name = "ingestionExecutor")
+    private ExecutorService ingestionExecutor;
+
+    /**
+     * Git 仓库读取方式：checkout（检出工作区）/ blob（直接读取对象库）
+     */
+    @Value("${rag.git.ingest-mode:checkout}")
+    private String gitIngestMode;
+
+    /**
+     * blob 模式下分析的分支，为空时使用远程默认分支
+     */
+    @Value("${rag.git.branch:}")
+    private String gitBranch;
 
     /**
      * 【查询知识库标签列表接口】
@@ -82,6 +111,12 @@ public class RAGDomainService {
             RList<String> elements = redissonClient.getList("ragTag");
             boolean removed = elements.remove(ragTag);
 
+            // 3. 清除 Git 增量索引记录，下次分析会全量重建
+            gitRepositorySync.clearIndexedCommit(ragTag);
+
+            // 4. 使该知识库相关的缓存回答失效
+            semanticAnswerCache.invalidate(ragTag);
+
             return Response.<Boolean>builder()
                     .code("0000")
                     .info("删除成功 (清理向量: " + deletedRows + "条)")
@@ -121,24 +156,37 @@ public class RAGDomainService {
     /**
      * 【上传知识库文件】
      * 将用户上传的文件解析、切块、向量化后存入 PgVector 数据库
+     * 与 Git 仓库导入共用同一条流水线，切块攒批后通过 COPY 写入
      */
     public Response<String> uploadFile(String ragTag, List<MultipartFile> files) {
         log.info("上传知识库开始 {}", ragTag);
 
-        for (MultipartFile file : files) {
-            TikaDocumentReader documentReader = new TikaDocumentReader(file.getResource());
-            List<Document> documents = documentReader.get();
-            List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-
-            documents.forEach(doc -> doc.getMetadata().put("knowledge", ragTag));
-            documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", ragTag));
-
-            pgVectorStore.accept(documentSplitterList);
-
-            RList<String> elements = redissonClient.getList("ragTag");
-            if (!elements.contains(ragTag)) {
-                elements.add(ragTag);
+        String taskId = UUID.randomUUID().toString();
+        int failed;
+        try (DocumentIngestionPipeline.Session session =
+                     documentIngestionPipeline.open(taskId, ragTag, (c, fileName) -> {}, () -> false)) {
+            for (MultipartFile file : files) {
+                session.submit(file.getResource(), file.getOriginalFilename());
             }
+            session.finish();
+            failed = session.getFailed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.<String>builder().code("500").info("上传被中断").build();
+        } finally {
+            // 部分文件可能已经写入，无论成功与否都使缓存回答失效
+            semanticAnswerCache.invalidate(ragTag);
+        }
+
+        if (failed < files.size()) {
+            addRagTag(ragTag);
+        }
+        if (failed > 0) {
+            log.warn("上传知识库 {}: {} 个文件处理失败", ragTag, failed);
+            return Response.<String>builder()
+                    .code("500")
+                    .info("上传失败: " + failed + "/" + files.size() + " 个文件处理失败，详见服务日志")
+                    .build();
         }
 
         log.info("上传知识库完成 {}", ragTag);
@@ -158,11 +206,17 @@ public class RAGDomainService {
                 .state("PROCESSING")
                 .build();
 
-        redissonClient.getBucket("task:progress:" + taskId).set(progress, 1, TimeUnit.HOURS);
+        RBucket<TaskProgressDTO> bucket = redissonClient.getBucket("task:progress:" + taskId);
+        bucket.set(progress, 1, TimeUnit.HOURS);
 
-        CompletableFuture.runAsync(() -> {
-            processGitRepository(taskId, repoUrl, userName, token);
-        });
+        try {
+            // 使用独立的导入线程池，避免占用 ForkJoinPool.commonPool()
+            ingestionExecutor.execute(() -> processGitRepository(progress, repoUrl, userName, token));
+        } catch (RejectedExecutionException e) {
+            log.warn("导入任务队列已满，拒绝任务 {}: {}", taskId, repoUrl);
+            bucket.delete();
+            return Response.<String>builder().code("4029").info("任务队列已满，请稍后再试").build();
+        }
 
         return Response.<String>builder().code("0000").info("任务已提交").data(taskId).build();
     }
@@ -183,138 +237,241 @@ public class RAGDomainService {
                 .code("0000").info("查询成功").data(progress).build();
     }
 
+    /**
+     * 【订阅任务进度】
+     * 先返回当前进度，之后由 Redis 主题推送，任务结束（完成/失败/取消）时流结束
+     */
+    public Flux<TaskProgressDTO> streamTaskProgress(String taskId) {
+        return taskControl.watch(taskId);
+    }
+
     /**
      * 【取消任务接口】
      */
     public Response<String> cancelTask(String taskId) {
-        redissonClient.getBucket("task:stop:" + taskId).set("STOP", 5, TimeUnit.MINUTES);
+        taskControl.cancel(taskId);
         return Response.<String>builder().code("0000").info("任务取消指令已下达").build();
     }
 
     /**
      * 【核心后台任务：处理 Git 仓库】
+     *
+     * 首次分析全量克隆并重建知识库；之后再次分析同一仓库时，
+     * 只拉取新提交并重新向量化新增/修改的文件，删除已移除文件的向量。
      */
-    private void processGitRepository(String taskId, String repoUrl, String userName, String token) {
-        String localPath = "./git-cloned-repo/" + taskId;
-        RBucket<TaskProgressDTO> bucket = redissonClient.getBucket("task:progress:" + taskId);
-        RBucket<String> stopSignal = redissonClient.getBucket("task:stop:" + taskId);
+    private void processGitRepository(TaskProgressDTO initial, String repoUrl, String userName, String token) {
+        String taskId = initial.getTaskId();
+        String repoProjectName = extractProjectName(repoUrl);
+        String localPath = GIT_REPO_DIR + repoProjectName;
+        TaskHandle task = taskControl.open(initial);
+
+        // 同一个仓库同一时间只允许一个任务，避免共用本地目录和索引记录
+        RLock repoLock = redissonClient.getLock("rag:git:lock:" + repoProjectName);
+        if (!repoLock.tryLock()) {
+            task.update(0, "该仓库正在被其他任务分析，请稍后再试", "FAILED");
+            task.close();
+            return;
+        }
 
+        // 知识库内容是否已被改动（开始删除旧向量后即视为改动），改动后需要使缓存回答失效
+        boolean modified = false;
         try {
-            String repoProjectName = extractProjectName(repoUrl);
             log.info("异步任务 {}: 开始分析 Git 仓库 {}", taskId, repoUrl);
 
-            updateProgress(bucket, 5, "正在连接远程仓库...", "PROCESSING");
-            FileUtils.deleteDirectory(new File(localPath));
+            task.update(5, "正在连接远程仓库...", "PROCESSING");
+            String indexedCommit = gitRepositorySync.getIndexedCommit(repoProjectName, repoUrl);
 
-            updateProgress(bucket, 10, "正在克隆代码 (这可能需要几分钟)...", "PROCESSING");
+            boolean blobMode = "blob".equalsIgnoreCase(gitIngestMode);
+            task.update(10, indexedCommit == null
+                    ? "正在克隆代码 (这可能需要几分钟)..."
+                    : "正在拉取新的提交...", "PROCESSING");
 
-            if (stopSignal.isExists()) {
+            if (task.isCancelled()) {
                 throw new InterruptedException("用户取消任务");
             }
 
-            Git git = Git.cloneRepository()
-                    .setURI(repoUrl)
-                    .setDirectory(new File(localPath))
-                    .setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, token))
-                    .call();
-
-            updateProgress(bucket, 30, "克隆完成，开始扫描文件...", "PROCESSING");
-
-            AtomicInteger totalFiles = new AtomicInteger(0);
-            Files.walkFileTree(Paths.get(localPath), new SimpleFileVisitor<>() {
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (stopSignal.isExists()) {
-                        return FileVisitResult.TERMINATE;
-                    }
-                    if (isValidFile(file)) {
-                        totalFiles.incrementAndGet();
-                    }
-                    return FileVisitResult.CONTINUE;
+            UsernamePasswordCredentialsProvider credentials = new UsernamePasswordCredentialsProvider(userName, token);
+            long fetchStart = System.currentTimeMillis();
+            try (GitRepositorySync.SyncResult sync = blobMode
+                    ? gitRepositorySync.syncBare(repoUrl, new File(localPath + ".git"), credentials, gitBranch, indexedCommit)
+                    : gitRepositorySync.sync(repoUrl, new File(localPath), credentials, indexedCommit)) {
+
+                long fetchMillis = System.currentTimeMillis() - fetchStart;
+                long diskBytes = sync.getDiskBytes();
+                log.info("任务 {}: 仓库同步完成，模式 {}，耗时 {} ms，占用磁盘 {} 字节", taskId, gitIngestMode, fetchMillis, diskBytes);
+                task.updateIoStats(fetchMillis, diskBytes, 0L);
+
+                if (sync.isUpToDate()) {
+                    addRagTag(repoProjectName);
+                    gitRepositorySync.saveIndexedCommit(repoProjectName, repoUrl, sync.getHeadCommit());
+                    task.update(100, "仓库没有新的提交，知识库已是最新", "COMPLETED");
+                    log.info("任务 {}: 仓库无变更", taskId);
+                    return;
                 }
-            });
-
-            if (stopSignal.isExists()) {
-                throw new InterruptedException("用户取消任务");
-            }
-
-            log.info("任务 {}: 扫描到 {} 个文件", taskId, totalFiles.get());
-            updateProgress(bucket, 35, "扫描完成，共 " + totalFiles.get() + " 个文件，开始解析...", "PROCESSING");
-
-            AtomicInteger current = new AtomicInteger(0);
-            int total = totalFiles.get() > 0 ? totalFiles.get() : 1;
-
-            Files.walkFileTree(Paths.get(localPath), new SimpleFileVisitor<>() {
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if (stopSignal.isExists()) {
-                        return FileVisitResult.TERMINATE;
-                    }
-
-                    if (!isValidFile(file)) {
-                        return FileVisitResult.CONTINUE;
-                    }
 
-                    int c = current.incrementAndGet();
-                    int p = 35 + (int) ((c * 60.0) / total);
-
-                    if (c % 5 == 0 || p % 10 == 0) {
-                        updateProgress(bucket, p, "正在解析: " + file.getFileName(), "PROCESSING");
-                    }
-
-                    try {
-                        TikaDocumentReader reader = new TikaDocumentReader(new PathResource(file));
-                        List<Document> documents = reader.get();
-
-                        List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-
-                        documents.forEach(doc -> doc.getMetadata().put("knowledge", repoProjectName));
-                        documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", repoProjectName));
+                Path root = Paths.get(localPath);
+                FileManifest.Filter filter = fileFilter();
+                FileManifest manifest;
+                if (sync.isFull()) {
+                    // 全量重建：清理旧向量，避免重复分析时向量重复
+                    // 先清除增量索引记录：重建中途取消或失败时，下次分析仍然全量重建，而不是基于旧提交做增量
+                    gitRepositorySync.clearIndexedCommit(repoProjectName);
+                    modified = true;
+                    vectorStoreRepository.deleteByRagTag(repoProjectName);
+                    // 删除后立即失效，重建期间不再回放引用已删除内容的缓存回答
+                    semanticAnswerCache.invalidate(repoProjectName);
+                    task.update(30, "克隆完成，开始扫描文件...", "PROCESSING");
+                    manifest = blobMode
+                            ? sync.manifest(null, filter)
+                            : FileManifest.scan(root, filter, task::isCancelled);
+                } else {
+                    List<String> stalePaths = new ArrayList<>(sync.getDeletedPaths());
+                    stalePaths.addAll(sync.getChangedPaths());
+                    modified = true;
+                    vectorStoreRepository.deleteByRagTagAndSourcePaths(repoProjectName, stalePaths);
+                    semanticAnswerCache.invalidate(repoProjectName);
+                    task.update(30, "拉取完成，变更 " + sync.getChangedPaths().size()
+                            + " 个文件，删除 " + sync.getDeletedPaths().size() + " 个文件", "PROCESSING");
+                    manifest = blobMode
+                            ? sync.manifest(sync.getChangedPaths(), filter)
+                            : FileManifest.of(root, sync.getChangedPaths(), filter);
+                }
 
-                        pgVectorStore.accept(documentSplitterList);
+                if (task.isCancelled()) {
+                    throw new InterruptedException("用户取消任务");
+                }
 
-                    } catch (Exception e) {
-                        log.error("处理文件失败: " + file, e);
+                AtomicLong bytesRead = new AtomicLong(0);
+                int failed = ingestManifest(taskId, repoProjectName, manifest, bytesRead, task, entry -> {
+                    if (!blobMode) {
+                        return new PathResource(root.resolve(entry.path()));
                     }
-                    return FileVisitResult.CONTINUE;
+                    byte[] content = sync.readBlob(entry);
+                    return new ByteArrayResource(content) {
+                        @Override
+                        public String getFilename() {
+                            return entry.fileName();
+                        }
+                    };
+                });
+                task.updateIoStats(fetchMillis, diskBytes, bytesRead.get());
+
+                if (task.isCancelled()) {
+                    throw new InterruptedException("用户取消任务");
                 }
-            });
 
-            if (stopSignal.isExists()) {
-                throw new InterruptedException("用户取消任务");
-            }
-
-            FileUtils.deleteDirectory(new File(localPath));
-
-            RList<String> elements = redissonClient.getList("ragTag");
-            if (!elements.contains(repoProjectName)) {
-                elements.add(repoProjectName);
+                addRagTag(repoProjectName);
+                if (failed > 0) {
+                    // 有文件失败时不记录提交：失败文件的旧向量已被删除，下次分析重新计算同样的变更并重试这些文件
+                    task.update(100, "分析结束，但有 " + failed + " 个文件处理失败，请重新分析以补全知识库", "FAILED");
+                    log.warn("任务 {}: {} 个文件处理失败，未记录索引提交", taskId, failed);
+                    return;
+                }
+                // 全部文件处理成功才记录提交，中途失败或取消时下次会重新计算同样的变更
+                gitRepositorySync.saveIndexedCommit(repoProjectName, repoUrl, sync.getHeadCommit());
             }
-            git.close();
 
-            updateProgress(bucket, 100, "分析完成！", "COMPLETED");
+            task.update(100, "分析完成！", "COMPLETED");
             log.info("任务 {}: 分析完成", taskId);
 
         } catch (InterruptedException e) {
             log.warn("任务 {} 已被取消", taskId);
-            updateProgress(bucket, 0, "任务已取消", "CANCELLED");
-            try {
-                FileUtils.deleteDirectory(new File(localPath));
-            } catch (IOException ignored) {
-            }
+            task.update(0, "任务已取消", "CANCELLED");
         } catch (Exception e) {
             log.error("任务 " + taskId + " 失败", e);
-            updateProgress(bucket, 0, "任务失败: " + e.getMessage(), "FAILED");
+            task.update(0, "任务失败: " + e.getMessage(), "FAILED");
+        } finally {
+            // 写入新向量后再失效一次，丢弃导入期间基于不完整知识库生成的回答
+            if (modified) {
+                semanticAnswerCache.invalidate(repoProjectName);
+            }
+            repoLock.unlock();
+            task.close();
+        }
+    }
+
+    /**
+     * 按清单导入：进度按清单中的文件数计算，清单生成后不再遍历目录
+     *
+     * @return 处理失败的文件数
+     */
+    private int ingestManifest(String taskId, String ragTag, FileManifest manifest, AtomicLong bytesRead,
+                               TaskHandle task, ContentSource source) throws Exception {
+        log.info("任务 {}: 清单共 {} 个文件，{} 字节", taskId, manifest.size(), manifest.getTotalBytes());
+        task.update(35, "扫描完成，共 " + manifest.size() + " 个文件，开始解析...", "PROCESSING");
+
+        return runPipeline(taskId, ragTag, manifest.size(), task, session -> {
+            for (FileManifest.Entry entry : manifest.getEntries()) {
+                session.submit(source.open(entry), entry.path());
+                bytesRead.addAndGet(entry.size());
+            }
+        });
+    }
+
+    /**
+     * 清单条目 → 文件内容
+     */
+    @FunctionalInterface
+    private interface ContentSource {
+        Resource open(FileManifest.Entry entry) throws IOException;
+    }
+
+    /**
+     * 仓库文件过滤：路径为相对仓库根目录、'/' 分隔
+     */
+    private FileManifest.Filter fileFilter() {
+        return new FileManifest.Filter() {
+            public boolean acceptPath(String path) {
+                return isValidPath("/" + path);
+            }
+
+            public boolean acceptSize(long size) {
+                return isValidSize(size);
+            }
+        };
+    }
+
+    /**
+     * 流水线：扫描(当前线程) → 解析 → 切块 → 向量化入库，各阶段独立线程池并行推进
+     *
+     * @return 处理失败的文件数
+     */
+    private int runPipeline(String taskId, String ragTag, int totalFiles,
+                            TaskHandle task, PipelineFeeder feeder) throws Exception {
+        int total = totalFiles > 0 ? totalFiles : 1;
+        // 每个文件都更新本地进度，由 TaskControl 按频率合并写入 Redis
+        DocumentIngestionPipeline.ProgressListener listener = (c, fileName) ->
+                task.update(35 + (int) ((c * 60.0) / total), "正在解析: " + fileName, "PROCESSING");
+
+        try (DocumentIngestionPipeline.Session session =
+                     documentIngestionPipeline.open(taskId, ragTag, listener, task::isCancelled)) {
             try {
-                FileUtils.deleteDirectory(new File(localPath));
-            } catch (IOException ignored) {
+                feeder.feed(session);
+            } catch (InterruptedException e) {
+                // 扫描阶段发现取消，继续排空流水线后由调用方统一处理
+                log.info("任务 {}: 扫描阶段已停止", taskId);
             }
-        } finally {
-            stopSignal.delete();
+            session.finish();
+            return session.getFailed();
         }
     }
 
-    private boolean isValidFile(Path file) {
-        String pathStr = file.toString();
+    /**
+     * 向流水线提交文件
+     */
+    @FunctionalInterface
+    private interface PipelineFeeder {
+        void feed(DocumentIngestionPipeline.Session session) throws IOException, InterruptedException;
+    }
+
+    private void addRagTag(String ragTag) {
+        RList<String> elements = redissonClient.getList("ragTag");
+        if (!elements.contains(ragTag)) {
+            elements.add(ragTag);
+        }
+    }
 
+    private boolean isValidPath(String pathStr) {
         if (pathStr.contains(".git/") ||
                 pathStr.contains("/target/") ||
                 pathStr.contains("/build/") ||
@@ -326,15 +483,6 @@ public class RAGDomainService {
             return false;
         }
 
-        try {
-            long size = Files.size(file);
-            if (size == 0 || size > 1024 * 1024) {
-                return false;
-            }
-        } catch (IOException e) {
-            return false;
-        }
-
         return pathStr.endsWith(".java") ||
                 pathStr.endsWith(".xml") ||
                 pathStr.endsWith(".yml") ||
@@ -345,15 +493,8 @@ public class RAGDomainService {
                 pathStr.endsWith(".txt");
     }
 
-    private void updateProgress(RBucket<TaskProgressDTO> bucket, int percentage, String msg, String state) {
-        TaskProgressDTO p = bucket.get();
-        if (p == null) {
-            return;
-        }
-        p.setPercentage(percentage);
-        p.setStatusDescription(msg);
-        p.setState(state);
-        bucket.set(p, 1, TimeUnit.HOURS);
+    private boolean isValidSize(long size) {
+        return size > 0 && size <= 1024 * 1024;
     }
 
     private String extractProjectName(String repoUrl) {
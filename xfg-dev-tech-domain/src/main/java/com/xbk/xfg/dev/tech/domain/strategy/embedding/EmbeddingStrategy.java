@@ -8,6 +8,11 @@ import org.springframework.ai.embedding.EmbeddingModel;
  */
 public interface EmbeddingStrategy {
 
+    /**
+     * 默认单次批量向量化的最大文本数
+     */
+    int DEFAULT_MAX_BATCH_SIZE = 32;
+
     /**
      * 是否支持指定的提供商类型
      */
@@ -17,4 +22,11 @@ public interface EmbeddingStrategy {
      * 基于配置创建 EmbeddingModel
      */
     EmbeddingModel createEmbeddingModel(LlmProviderConfigDTO config);
+
+    /**
+     * 单次请求允许合并的最大文本数，合并请求时不会超过该值
+     */
+    default int maxBatchSize() {
+        return DEFAULT_MAX_BATCH_SIZE;
+    }
 }
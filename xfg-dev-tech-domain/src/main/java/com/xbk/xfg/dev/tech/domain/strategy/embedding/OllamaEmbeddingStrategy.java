@@ -1,6 +1,8 @@
 package com.xbk.xfg.dev.tech.domain.strategy.embedding;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import com.xbk.xfg.dev.tech.domain.factory.HttpClientRegistry;
+import jakarta.annotation.Resource;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.ollama.OllamaEmbeddingModel;
 import org.springframework.ai.ollama.api.OllamaApi;
@@ -14,17 +16,30 @@ import org.springframework.util.StringUtils;
 @Component
 public class OllamaEmbeddingStrategy implements EmbeddingStrategy {
 
+    @Resource
+    private HttpClientRegistry httpClientRegistry;
+
     @Override
     public boolean supports(String providerType) {
         return "OLLAMA".equalsIgnoreCase(providerType);
     }
 
+    /**
+     * 本地 Ollama 按顺序逐条计算，批次过大只会拉长单次请求耗时
+     */
+    @Override
+    public int maxBatchSize() {
+        return 16;
+    }
+
     @Override
     public EmbeddingModel createEmbeddingModel(LlmProviderConfigDTO config) {
         if (!StringUtils.hasText(config.getEmbeddingModel())) {
             throw new IllegalArgumentException("Ollama embedding 模型名称不能为空");
         }
-        OllamaApi api = new OllamaApi(config.getBaseUrl());
+        OllamaApi api = new OllamaApi(config.getBaseUrl(),
+                httpClientRegistry.restClientBuilder(config.getBaseUrl()),
+                httpClientRegistry.webClientBuilder(config.getBaseUrl()));
         OllamaOptions options = OllamaOptions.builder()
                 .model(config.getEmbeddingModel())
                 .build();
@@ -1,6 +1,8 @@
 package com.xbk.xfg.dev.tech.domain.strategy.embedding;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
+import com.xbk.xfg.dev.tech.domain.factory.HttpClientRegistry;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.document.MetadataMode;
@@ -17,6 +19,9 @@ import org.springframework.util.StringUtils;
 @Component
 public class OpenAiEmbeddingStrategy implements EmbeddingStrategy {
 
+    @Resource
+    private HttpClientRegistry httpClientRegistry;
+
     @Override
     public boolean supports(String providerType) {
         return "OPENAI".equalsIgnoreCase(providerType)
@@ -24,6 +29,14 @@ public class OpenAiEmbeddingStrategy implements EmbeddingStrategy {
             || "DEEPSEEK".equalsIgnoreCase(providerType);
     }
 
+    /**
+     * OpenAI 接口单次最多 2048 条输入，但总 Token 也有上限，切块默认 800 Token 左右，取 64 比较稳妥
+     */
+    @Override
+    public int maxBatchSize() {
+        return 64;
+    }
+
     @Override
     public EmbeddingModel createEmbeddingModel(LlmProviderConfigDTO config) {
         if (!StringUtils.hasText(config.getEmbeddingModel())) {
@@ -45,7 +58,12 @@ public class OpenAiEmbeddingStrategy implements EmbeddingStrategy {
         }
         log.info("创建 OpenAI Embedding 客户端: {}, baseUrl: {} (原始: {})",
                 config.getEmbeddingModel(), baseUrl, config.getBaseUrl());
-        OpenAiApi api = new OpenAiApi(baseUrl, config.getApiKey());
+        OpenAiApi api = OpenAiApi.builder()
+                .baseUrl(baseUrl)
+                .apiKey(config.getApiKey())
+                .restClientBuilder(httpClientRegistry.restClientBuilder(baseUrl))
+                .webClientBuilder(httpClientRegistry.webClientBuilder(baseUrl))
+                .build();
         OpenAiEmbeddingOptions options = OpenAiEmbeddingOptions.builder()
                 .model(config.getEmbeddingModel())
                 .build();
@@ -2,13 +2,16 @@ package com.xbk.xfg.dev.tech.domain.strategy.impl;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory.ChatClientWrapper;
+import com.xbk.xfg.dev.tech.domain.factory.HttpClientRegistry;
 import com.xbk.xfg.dev.tech.domain.strategy.ChatClientStrategy;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.anthropic.AnthropicChatModel;
 import org.springframework.ai.anthropic.AnthropicChatOptions;
 import org.springframework.ai.anthropic.api.AnthropicApi;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.RetryUtils;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
@@ -23,6 +26,9 @@ import reactor.core.publisher.Flux;
 @Component
 public class AnthropicChatClientStrategy implements ChatClientStrategy {
 
+    @Resource
+    private HttpClientRegistry httpClientRegistry;
+
     @Override
     public boolean supports(String providerType) {
         return "ANTHROPIC".equalsIgnoreCase(providerType);
@@ -32,7 +38,11 @@ public class AnthropicChatClientStrategy implements ChatClientStrategy {
     public ChatClientWrapper createClient(LlmProviderConfigDTO config) {
         log.info("创建 Anthropic 客户端: {}", config.getName());
         
-        AnthropicApi api = new AnthropicApi(config.getBaseUrl(), config.getApiKey());
+        // 同一服务地址共用连接池
+        AnthropicApi api = new AnthropicApi(config.getBaseUrl(), config.getApiKey(), AnthropicApi.DEFAULT_ANTHROPIC_VERSION,
+                httpClientRegistry.restClientBuilder(config.getBaseUrl()),
+                httpClientRegistry.webClientBuilder(config.getBaseUrl()),
+                RetryUtils.DEFAULT_RESPONSE_ERROR_HANDLER);
         AnthropicChatOptions options = AnthropicChatOptions.builder()
                 .model(config.getDefaultModel())
                 .build();
@@ -2,7 +2,9 @@ package com.xbk.xfg.dev.tech.domain.strategy.impl;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory.ChatClientWrapper;
+import com.xbk.xfg.dev.tech.domain.factory.HttpClientRegistry;
 import com.xbk.xfg.dev.tech.domain.strategy.ChatClientStrategy;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
@@ -23,6 +25,9 @@ import reactor.core.publisher.Flux;
 @Component
 public class OllamaChatClientStrategy implements ChatClientStrategy {
 
+    @Resource
+    private HttpClientRegistry httpClientRegistry;
+
     @Override
     public boolean supports(String providerType) {
         return "OLLAMA".equalsIgnoreCase(providerType);
@@ -32,7 +37,10 @@ public class OllamaChatClientStrategy implements ChatClientStrategy {
     public ChatClientWrapper createClient(LlmProviderConfigDTO config) {
         log.info("创建 Ollama 客户端: {}", config.getName());
         
-        OllamaApi api = new OllamaApi(config.getBaseUrl());
+        // 同一服务地址共用连接池
+        OllamaApi api = new OllamaApi(config.getBaseUrl(),
+                httpClientRegistry.restClientBuilder(config.getBaseUrl()),
+                httpClientRegistry.webClientBuilder(config.getBaseUrl()));
         OllamaOptions options = OllamaOptions.builder()
                 .model(config.getDefaultModel())
                 .build();
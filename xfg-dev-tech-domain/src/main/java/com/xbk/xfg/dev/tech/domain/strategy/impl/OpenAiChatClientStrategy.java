@@ -2,7 +2,9 @@ package com.xbk.xfg.dev.tech.domain.strategy.impl;
 
 import com.xbk.xfg.dev.tech.api.dto.LlmProviderConfigDTO;
 import com.xbk.xfg.dev.tech.domain.factory.DynamicChatClientFactory.ChatClientWrapper;
+import com.xbk.xfg.dev.tech.domain.factory.HttpClientRegistry;
 import com.xbk.xfg.dev.tech.domain.strategy.ChatClientStrategy;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
@@ -29,6 +31,9 @@ import reactor.core.publisher.Flux;
 @Component
 public class OpenAiChatClientStrategy implements ChatClientStrategy {
 
+    @Resource
+    private HttpClientRegistry httpClientRegistry;
+
     @Override
     public boolean supports(String providerType) {
         String type = providerType.toUpperCase();
@@ -44,11 +49,13 @@ public class OpenAiChatClientStrategy implements ChatClientStrategy {
         log.info("创建 OpenAI 客户端: {}, baseUrl: {} (原始: {})", config.getName(), baseUrl, config.getBaseUrl());
         
         // 使用 builder 模式创建 OpenAiApi，设置 completionsPath 为 /chat/completions
-        // 这样用户可以在 baseUrl 中完全控制路径（如 /openai/v1）
+        // 这样用户可以在 baseUrl 中完全控制路径（如 /openai/v1）；同一服务地址共用连接池
         OpenAiApi api = OpenAiApi.builder()
                 .baseUrl(baseUrl)
                 .apiKey(config.getApiKey())
                 .completionsPath("/chat/completions")
+                .restClientBuilder(httpClientRegistry.restClientBuilder(baseUrl))
+                .webClientBuilder(httpClientRegistry.webClientBuilder(baseUrl))
                 .build();
         
         OpenAiChatOptions options = OpenAiChatOptions.builder()
@@ -0,0 +1,223 @@
+package com.xbk.xfg.dev.tech.domain.task;
+
+import com.xbk.xfg.dev.tech.api.dto.TaskProgressDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台任务控制
+ * 负责导入任务的取消信号和进度写入
+ *
+ * <h2>为什么需要？</h2>
+ * 原实现每处理一个文件都要访问 Redis：
+ * - stopSignal.isExists() 检查取消（1 次往返）
+ * - updateProgress() 先 get 再 set（2 次往返）
+ * 1 万个文件的仓库仅记账就要约 3 万次 Redis 调用。
+ *
+ * <h2>取消</h2>
+ * 启动时订阅一次 Redis 主题 task:cancel，收到消息后翻转本地 AtomicBoolean，
+ * 任务线程检查取消只读本地变量。
+ * 同时保留 task:stop:{taskId} 标记，任务在本实例注册时读取一次，用于覆盖"取消先于任务开始"的情况。
+ *
+ * <h2>进度</h2>
+ * 进度只在本地内存中更新，后台线程按 writesPerSecond 把有变化的进度整体写入 Redis（一次 set，不再先 get），
+ * 完成、失败、取消等终态立即写入。每个任务的 Redis 写入次数只与任务时长有关，与文件数无关。
+ *
+ * <h2>进度推送</h2>
+ * 每次写入进度的同时发布到 Redis 主题 task:progress，每个实例只订阅一次，
+ * 再按 taskId 分发给本实例上的 SSE 连接（{@link #watch(String)}），因此任务和连接可以在不同实例上。
+ *
+ * @author xiexu
+ */
+@Slf4j
+@Component
+public class TaskControl {
+
+    private static final String CANCEL_TOPIC = "task:cancel";
+
+    private static final String STOP_KEY_PREFIX = "task:stop:";
+
+    private static final String PROGRESS_KEY_PREFIX = "task:progress:";
+
+    private static final String PROGRESS_TOPIC = "task:progress";
+
+    /**
+     * 终态，推送到终态后结束订阅
+     */
+    private static final Set<String> TERMINAL_STATES = Set.of("COMPLETED", "FAILED", "CANCELLED");
+
+    /**
+     * 每个任务每秒最多写入进度的次数
+     */
+    @Value("${rag.task.progress-writes-per-second:2}")
+    private int progressWritesPerSecond;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 本实例上正在运行的任务
+     */
+    private final Map<String, TaskHandle> runningTasks = new ConcurrentHashMap<>();
+
+    /**
+     * 本实例上订阅进度的连接：taskId → 连接
+     */
+    private final Map<String, Set<Sinks.Many<TaskProgressDTO>>> watchers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    private int listenerId;
+
+    private int progressListenerId;
+
+    @PostConstruct
+    public void init() {
+        RTopic topic = redissonClient.getTopic(CANCEL_TOPIC, StringCodec.INSTANCE);
+        listenerId = topic.addListener(String.class, (channel, taskId) -> {
+            TaskHandle handle = runningTasks.get(taskId);
+            if (handle != null) {
+                log.info("收到取消信号: {}", taskId);
+                handle.markCancelled();
+            }
+        });
+
+        progressListenerId = redissonClient.getTopic(PROGRESS_TOPIC)
+                .addListener(TaskProgressDTO.class, (channel, progress) -> dispatch(progress));
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-progress-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = 1000L / Math.max(1, progressWritesPerSecond);
+        flusher.scheduleWithFixedDelay(this::flushAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        redissonClient.getTopic(CANCEL_TOPIC, StringCodec.INSTANCE).removeListener(listenerId);
+        redissonClient.getTopic(PROGRESS_TOPIC).removeListener(progressListenerId);
+        flusher.shutdown();
+        flushAll();
+    }
+
+    /**
+     * 在当前实例注册一个任务
+     *
+     * @param initial 初始进度（与提交任务时写入 Redis 的一致）
+     * @return 任务句柄，任务结束后需要关闭
+     */
+    public TaskHandle open(TaskProgressDTO initial) {
+        String taskId = initial.getTaskId();
+        TaskHandle handle = new TaskHandle(this, initial);
+        runningTasks.put(taskId, handle);
+        // 先注册再检查标记，保证取消消息不会落在两者之间被漏掉
+        if (redissonClient.getBucket(STOP_KEY_PREFIX + taskId).isExists()) {
+            handle.markCancelled();
+        }
+        return handle;
+    }
+
+    /**
+     * 取消任务：写入取消标记并广播，所有实例都会收到
+     */
+    public void cancel(String taskId) {
+        redissonClient.getBucket(STOP_KEY_PREFIX + taskId).set("STOP", 5, TimeUnit.MINUTES);
+        redissonClient.getTopic(CANCEL_TOPIC, StringCodec.INSTANCE).publish(taskId);
+    }
+
+    /**
+     * 订阅任务进度：先返回当前进度，之后每次写入进度时推送，到达终态后结束
+     * 任务不存在或已过期时返回空流
+     */
+    public Flux<TaskProgressDTO> watch(String taskId) {
+        return Flux.defer(() -> {
+            Sinks.Many<TaskProgressDTO> sink = Sinks.many().unicast().onBackpressureBuffer();
+            // 先注册再读取当前进度，保证两者之间发布的进度不会丢失
+            watchers.computeIfAbsent(taskId, key -> new CopyOnWriteArraySet<>()).add(sink);
+
+            TaskProgressDTO current = redissonClient.<TaskProgressDTO>getBucket(PROGRESS_KEY_PREFIX + taskId).get();
+            if (current == null) {
+                removeWatcher(taskId, sink);
+                return Flux.<TaskProgressDTO>empty();
+            }
+            return Flux.concat(Mono.just(current), sink.asFlux())
+                    .takeUntil(progress -> isTerminal(progress.getState()))
+                    .doFinally(signal -> removeWatcher(taskId, sink));
+        });
+    }
+
+    public static boolean isTerminal(String state) {
+        return state != null && TERMINAL_STATES.contains(state);
+    }
+
+    void close(TaskHandle handle) {
+        String taskId = handle.getTaskId();
+        runningTasks.remove(taskId, handle);
+        flush(handle);
+        redissonClient.getBucket(STOP_KEY_PREFIX + taskId).delete();
+    }
+
+    /**
+     * 把任务的最新进度写入 Redis（有变化时才写）
+     */
+    void flush(TaskHandle handle) {
+        // 取快照和写入在同一把锁内，保证后取的快照后写入，终态不会被旧进度覆盖
+        synchronized (handle.writeLock) {
+            TaskProgressDTO snapshot = handle.takeDirtySnapshot();
+            if (snapshot == null) {
+                return;
+            }
+            try {
+                redissonClient.getBucket(PROGRESS_KEY_PREFIX + snapshot.getTaskId()).set(snapshot, 1, TimeUnit.HOURS);
+                redissonClient.getTopic(PROGRESS_TOPIC).publish(snapshot);
+            } catch (Exception e) {
+                log.warn("写入任务进度失败: {} - {}", snapshot.getTaskId(), e.getMessage());
+            }
+        }
+    }
+
+    private void flushAll() {
+        runningTasks.values().forEach(this::flush);
+    }
+
+    private void dispatch(TaskProgressDTO progress) {
+        Set<Sinks.Many<TaskProgressDTO>> sinks = watchers.get(progress.getTaskId());
+        if (sinks == null) {
+            return;
+        }
+        for (Sinks.Many<TaskProgressDTO> sink : sinks) {
+            // 单播 Sink 不允许并发写入
+            synchronized (sink) {
+                sink.tryEmitNext(progress);
+            }
+        }
+    }
+
+    private void removeWatcher(String taskId, Sinks.Many<TaskProgressDTO> sink) {
+        watchers.computeIfPresent(taskId, (key, sinks) -> {
+            sinks.remove(sink);
+            return sinks.isEmpty() ? null : sinks;
+        });
+    }
+}
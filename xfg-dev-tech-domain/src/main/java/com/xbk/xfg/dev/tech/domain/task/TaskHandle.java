@@ -0,0 +1,107 @@
+package com.xbk.xfg.dev.tech.domain.task;
+
+import com.xbk.xfg.dev.tech.api.dto.TaskProgressDTO;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 任务句柄
+ * 取消检查只读本地变量；进度更新只修改本地副本，由 {@link TaskControl} 定期批量写入 Redis
+ *
+ * <pre>
+ * try (TaskHandle task = taskControl.open(initial)) {
+ *     if (task.isCancelled()) { ... }
+ *     task.update(50, "正在解析: A.java", "PROCESSING");
+ * }
+ * </pre>
+ *
+ * @author xiexu
+ */
+public class TaskHandle implements AutoCloseable {
+
+    private final TaskControl control;
+
+    private final TaskProgressDTO progress;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    /**
+     * 串行化 Redis 写入，与更新进度使用的锁分开，写 Redis 时不阻塞更新
+     */
+    final Object writeLock = new Object();
+
+    private boolean dirty;
+
+    TaskHandle(TaskControl control, TaskProgressDTO initial) {
+        this.control = control;
+        this.progress = TaskProgressDTO.builder()
+                .taskId(initial.getTaskId())
+                .percentage(initial.getPercentage())
+                .statusDescription(initial.getStatusDescription())
+                .state(initial.getState())
+                .build();
+    }
+
+    public String getTaskId() {
+        return progress.getTaskId();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    void markCancelled() {
+        cancelled.set(true);
+    }
+
+    /**
+     * 更新进度（可被多个线程并发调用）
+     */
+    public void update(int percentage, String statusDescription, String state) {
+        synchronized (this) {
+            progress.setPercentage(percentage);
+            progress.setStatusDescription(statusDescription);
+            progress.setState(state);
+            dirty = true;
+        }
+        // 终态立即写入 Redis
+        if (TaskControl.isTerminal(state)) {
+            control.flush(this);
+        }
+    }
+
+    /**
+     * 更新 IO 统计（拉取耗时、磁盘占用、读取字节）
+     */
+    public synchronized void updateIoStats(long fetchMillis, long diskBytes, long bytesRead) {
+        progress.setFetchMillis(fetchMillis);
+        progress.setDiskBytes(diskBytes);
+        progress.setBytesRead(bytesRead);
+        dirty = true;
+    }
+
+    /**
+     * 有未写入的变化时返回进度副本，并清除变化标记
+     */
+    synchronized TaskProgressDTO takeDirtySnapshot() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        return TaskProgressDTO.builder()
+                .taskId(progress.getTaskId())
+                .percentage(progress.getPercentage())
+                .statusDescription(progress.getStatusDescription())
+                .state(progress.getState())
+                .errorMessage(progress.getErrorMessage())
+                .fetchMillis(progress.getFetchMillis())
+                .diskBytes(progress.getDiskBytes())
+                .bytesRead(progress.getBytesRead())
+                .build();
+    }
+
+    @Override
+    public void close() {
+        control.close(this);
+    }
+}
@@ -1,11 +1,15 @@
 package com.xbk.xfg.dev.tech.trigger.http;
 
 import com.xbk.xfg.dev.tech.api.IAiService;
+import com.xbk.xfg.dev.tech.api.dto.RagSourceDTO;
 import com.xbk.xfg.dev.tech.api.response.Response;
+import com.xbk.xfg.dev.tech.domain.factory.ProviderUnavailableException;
+import com.xbk.xfg.dev.tech.domain.retrieval.RagStreamEvent;
 import com.xbk.xfg.dev.tech.domain.service.AiDomainService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
@@ -53,8 +57,8 @@ public class AiController implements IAiService {
         return aiDomainService.generateStream(model, message)
                 .map(response -> ServerSentEvent.builder().data(response).build())
                 .onErrorResume(e -> {
-                    log.error("流式对话异常 [{}]", requestId, e);
-                    return Flux.just(buildErrorEvent());
+                    logError("流式对话异常 [" + requestId + "]", e);
+                    return Flux.just(buildErrorEvent(e));
                 })
                 .doOnSubscribe(s -> log.info("流式对话开始订阅 [{}]", requestId))
                 .doOnCancel(() -> log.info("流式对话取消 [{}]", requestId))
@@ -65,6 +69,12 @@ public class AiController implements IAiService {
      * RAG 流式对话接口（支持多知识库）
      * 单个：GET /api/v1/ai/generate_stream_rag?ragTags=doc1&message=你好
      * 多个：GET /api/v1/ai/generate_stream_rag?ragTags=doc1&ragTags=doc2&message=你好
+     *
+     * 事件顺序：
+     * - retrieving：立即推送，data 为正在检索的知识库
+     * - sources：检索完成，data 为命中的参考来源（RagSourceDTO 列表）
+     * - 无事件名：模型输出片段（与普通流式对话相同）
+     * - error：出错，code 5003 表示模型服务熔断或并发已满（快速失败），5000 为其他错误
      */
     @Override
     @GetMapping(value = "generate_stream_rag", produces = "text/event-stream")
@@ -74,24 +84,84 @@ public class AiController implements IAiService {
             @RequestParam("message") String message) {
         log.info("收到RAG流式对话请求 - 模型: {}, 知识库: {}, 消息长度: {}", model, ragTags, message.length());
         return aiDomainService.generateStreamRag(model, ragTags, message)
-                .map(response -> ServerSentEvent.builder().data(response).build())
+                .map(this::toServerSentEvent)
                 .onErrorResume(e -> {
-                    log.error("RAG流式对话异常", e);
-                    return Flux.just(buildErrorEvent());
+                    logError("RAG流式对话异常", e);
+                    return Flux.just(buildErrorEvent(e));
                 })
                 .doOnSubscribe(s -> log.info("RAG流式对话开始订阅"))
                 .doOnCancel(() -> log.info("RAG流式对话取消"))
                 .doOnComplete(() -> log.info("RAG流式对话完成"));
     }
 
-    private ServerSentEvent<Object> buildErrorEvent() {
-        Response<String> error = Response.<String>builder()
-                .code("5000")
-                .info("系统繁忙，请稍后再试")
+    private ServerSentEvent<Object> toServerSentEvent(RagStreamEvent event) {
+        return switch (event.type()) {
+            case RETRIEVING -> ServerSentEvent.builder()
+                    .event("retrieving")
+                    .data(Response.<List<String>>builder()
+                            .code("0000")
+                            .info("正在检索知识库")
+                            .data(event.ragTags())
+                            .build())
+                    .build();
+            case SOURCES -> ServerSentEvent.builder()
+                    .event("sources")
+                    .data(Response.<List<RagSourceDTO>>builder()
+                            .code("0000")
+                            .info("检索完成")
+                            .data(event.documents().stream().map(this::toSource).toList())
+                            .build())
+                    .build();
+            case ANSWER -> ServerSentEvent.builder().data(event.response()).build();
+        };
+    }
+
+    private RagSourceDTO toSource(Document document) {
+        Object knowledge = document.getMetadata().get("knowledge");
+        Object sourcePath = document.getMetadata().get("source_path");
+        return RagSourceDTO.builder()
+                .knowledge(knowledge != null ? knowledge.toString() : null)
+                .sourcePath(sourcePath != null ? sourcePath.toString() : null)
+                .score(document.getScore())
                 .build();
+    }
+
+    /**
+     * 熔断 / 并发已满是预期内的快速失败，只记录一行日志
+     */
+    private void logError(String message, Throwable e) {
+        ProviderUnavailableException unavailable = findUnavailable(e);
+        if (unavailable != null) {
+            log.warn("{}: {}", message, unavailable.getMessage());
+        } else {
+            log.error(message, e);
+        }
+    }
+
+    private ServerSentEvent<Object> buildErrorEvent(Throwable e) {
+        ProviderUnavailableException unavailable = findUnavailable(e);
+        Response<String> error = unavailable != null
+                ? Response.<String>builder()
+                        .code("5003")
+                        .info(unavailable.getMessage())
+                        .data(unavailable.getReason().name())
+                        .build()
+                : Response.<String>builder()
+                        .code("5000")
+                        .info("系统繁忙，请稍后再试")
+                        .build();
         return ServerSentEvent.builder()
                 .event("error")
                 .data(error)
                 .build();
     }
+
+    private static ProviderUnavailableException findUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ProviderUnavailableException unavailable) {
+                return unavailable;
+            }
+        }
+        return null;
+    }
 }
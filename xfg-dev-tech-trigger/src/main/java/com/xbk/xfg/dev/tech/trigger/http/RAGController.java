@@ -6,9 +6,12 @@ import com.xbk.xfg.dev.tech.api.response.Response;
 import com.xbk.xfg.dev.tech.domain.service.RAGDomainService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
+import java.time.Duration;
 import java.util.List;
 
 /**
@@ -89,6 +92,41 @@ public class RAGController implements IRAGService {
         return ragDomainService.queryTaskProgress(taskId);
     }
 
+    /**
+     * 【订阅任务进度接口】
+     * GET /api/v1/rag/task_progress_stream?taskId=xxx
+     * 事件 progress 的数据与 query_task_progress 的返回一致，任务结束时流结束
+     */
+    @Override
+    @GetMapping(value = "task_progress_stream", produces = "text/event-stream")
+    public Flux<ServerSentEvent<Object>> streamTaskProgress(@RequestParam("taskId") String taskId) {
+        Flux<ServerSentEvent<Object>> progress = ragDomainService.streamTaskProgress(taskId)
+                .map(p -> ServerSentEvent.builder()
+                        .event("progress")
+                        .data(Response.<TaskProgressDTO>builder().code("0000").info("查询成功").data(p).build())
+                        .build())
+                .switchIfEmpty(Flux.just(ServerSentEvent.builder()
+                        .event("error")
+                        .data(Response.<String>builder().code("4004").info("任务不存在或已过期").build())
+                        .build()))
+                .onErrorResume(e -> {
+                    log.error("任务进度推送异常 [{}]", taskId, e);
+                    return Flux.just(ServerSentEvent.builder()
+                            .event("error")
+                            .data(Response.<String>builder().code("5000").info("进度推送异常").build())
+                            .build());
+                });
+
+        // 心跳注释，防止长时间没有进度时连接被代理断开
+        Flux<ServerSentEvent<Object>> heartbeat = Flux.interval(Duration.ofSeconds(15))
+                .map(i -> ServerSentEvent.builder().comment("heartbeat").build());
+
+        // 进度流有两个订阅者（输出 + 结束心跳），两者都订阅后才开始，避免错过结束信号；
+        // 客户端断开时两者都被取消，refCount 随之取消上游，注销 TaskControl 中的订阅（autoConnect 不会取消上游）
+        Flux<ServerSentEvent<Object>> shared = progress.publish().refCount(2);
+        return Flux.merge(shared, heartbeat.takeUntilOther(shared.then()));
+    }
+
     /**
      * 【取消任务接口】
      * POST /api/v1/rag/cancel_task